@@ -0,0 +1,94 @@
+package es.ulpgc.bd.analysis.bench;
+
+import es.ulpgc.bd.analysis.Analyzer;
+import es.ulpgc.bd.analysis.Language;
+import es.ulpgc.bd.analysis.TermPositions;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Analyzer throughput over a generated 4 MB book-like text (English and Spanish words, accents, digits,
+ * punctuation). The "mb" counter is MB/s of UTF-8 input (1 MB = 10^6 bytes).
+ *
+ * regexBaseline is the tokenizer the indexer used before: toLowerCase of the whole text, a
+ * [\p{L}\p{N}]+ Matcher and a HashMap of String counts.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AnalyzerBenchmark {
+
+    private static final String[] WORDS = {
+            "the", "whale", "Ishmael", "ocean", "captain", "ships", "harpoons", "stories", "were", "and",
+            "el", "corazón", "niño", "canción", "ciudades", "Quijote", "señor", "luces", "también", "que",
+            "Æther", "naïve", "café", "Straße", "Ελλάδα", "Москва", "1851", "XIV", "½", "chapter"
+    };
+    private static final String[] SEPARATORS = {" ", " ", " ", ", ", ". ", "; ", "\n", " — ", "\"", "'s "};
+
+    private static final Pattern TOKEN = Pattern.compile("[\\p{L}\\p{N}]+");
+
+    private static final Analyzer ENGLISH = new Analyzer(Language.ENGLISH, true, true);
+
+    private String text;
+    private double megabytes;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Throughput {
+        public double mb;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            mb = 0;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 4_000_000) {
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+            sb.append(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+        }
+        text = sb.toString();
+        megabytes = text.getBytes(StandardCharsets.UTF_8).length / 1e6;
+    }
+
+    @Benchmark
+    public Map<String, int[]> defaultChain(Throughput t) throws IOException {
+        TermPositions terms = new TermPositions();
+        Analyzer.DEFAULT.analyze(new StringReader(text), terms);
+        t.mb += megabytes;
+        return terms.positions();
+    }
+
+    @Benchmark
+    public Map<String, int[]> englishStopwordsStemming(Throughput t) throws IOException {
+        TermPositions terms = new TermPositions();
+        ENGLISH.analyze(new StringReader(text), terms);
+        t.mb += megabytes;
+        return terms.positions();
+    }
+
+    @Benchmark
+    public Map<String, Integer> regexBaseline(Throughput t) {
+        Map<String, Integer> tf = new HashMap<>();
+        Matcher m = TOKEN.matcher(text.toLowerCase());
+        while (m.find()) tf.merge(m.group(), 1, Integer::sum);
+        t.mb += megabytes;
+        return tf;
+    }
+}
@@ -0,0 +1,32 @@
+package es.ulpgc.bd.format;
+
+import java.text.Normalizer;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Author normalization and trigrams for the "author:<gram>" filter bitmaps.
+ * A doc whose normalized author contains a normalized query contains all of the query's trigrams,
+ * so intersecting their bitmaps gives a superset of the substring matches.
+ */
+public final class AuthorGrams {
+
+    public static final int N = 3;
+
+    private AuthorGrams() {}
+
+    public static String normalize(String s) {
+        if (s == null) return "";
+        String t = Normalizer.normalize(s, Normalizer.Form.NFD).replaceAll("\\p{M}+", "");
+        t = t.toLowerCase(Locale.ROOT).replaceAll("[^\\p{IsAlphabetic}\\p{IsDigit}]+", " ");
+        return t.trim();
+    }
+
+    /** Distinct trigrams of an already normalized string; empty if it is shorter than N. */
+    public static Set<String> grams(String normalized) {
+        Set<String> out = new LinkedHashSet<>();
+        for (int i = 0; i + N <= normalized.length(); i++) out.add(normalized.substring(i, i + N));
+        return out;
+    }
+}
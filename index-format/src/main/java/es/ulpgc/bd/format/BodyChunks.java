@@ -0,0 +1,106 @@
+package es.ulpgc.bd.format;
+
+import es.ulpgc.bd.analysis.Analyzer;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Side store for result snippets: the body cut into chunks of about CHUNK_CHARS characters, each starting
+ * at a token and deflated on its own ("doc-chunks", key "docId|chunk"), plus the token position each
+ * chunk starts at ("doc-chunk-starts", docId -> int[]). A token position from the positional index maps
+ * to its chunk by binary search, so a snippet costs one or two small chunks instead of the whole body.
+ * Tokens and their offsets come from the index's Analyzer, the chain the indexer counts positions with; chunks
+ * only start at tokens that chain keeps (not at dropped stopwords). The indexer cuts these
+ * chunks while streaming the body (its BodyAnalyzer); split is the reference for where they end.
+ */
+public final class BodyChunks {
+
+    public static final int CHUNK_CHARS = 4096;
+
+    /** Chunk texts and the position of each chunk's first token (ascending, starts[0] == 0). */
+    public record Split(List<String> texts, int[] starts) {}
+
+    private BodyChunks() {}
+
+    public static Split split(String body, Analyzer analyzer) {
+        if (body == null || body.isEmpty()) return new Split(new ArrayList<>(), new int[0]);
+
+        Splitter splitter = new Splitter(body);
+        analyzer.analyze(body, splitter);
+        return splitter.finish();
+    }
+
+    private static final class Splitter implements Analyzer.TermSink {
+        private final String body;
+        private final List<String> texts = new ArrayList<>();
+        private int[] starts = new int[8];
+        private int chunkFrom;
+
+        Splitter(String body) {
+            this.body = body;
+        }
+
+        // a token that would end past the limit opens the next chunk, unless the chunk is still empty
+        @Override
+        public void term(char[] chars, int length, int position, long start, long end) {
+            if (end - chunkFrom > CHUNK_CHARS && start > chunkFrom) {
+                texts.add(body.substring(chunkFrom, (int) start));
+                if (texts.size() == starts.length) starts = Arrays.copyOf(starts, starts.length * 2);
+                starts[texts.size()] = position;
+                chunkFrom = (int) start;
+            }
+        }
+
+        Split finish() {
+            texts.add(body.substring(chunkFrom));
+            return new Split(texts, Arrays.copyOf(starts, texts.size()));
+        }
+    }
+
+    public static byte[] deflate(String text) {
+        byte[] raw = text.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 16);
+            byte[] buf = new byte[4096];
+            while (!deflater.finished()) out.write(buf, 0, deflater.deflate(buf));
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** null for a missing or corrupt chunk. */
+    public static String inflate(byte[] data) {
+        if (data == null || data.length == 0) return null;
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 3);
+            byte[] buf = new byte[4096];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buf);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) return null;
+                out.write(buf, 0, n);
+            }
+            return out.toString(StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            return null;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    public static String key(int docId, int chunk) {
+        return docId + "|" + chunk;
+    }
+}
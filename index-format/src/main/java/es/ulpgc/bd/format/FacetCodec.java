@@ -0,0 +1,68 @@
+package es.ulpgc.bd.format;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+
+/**
+ * Record format of the "doc-facets" map: the facet fields of one doc (year, language, author) as
+ * a version byte, int year (0 = unknown) and two modified-UTF-8 strings, a few dozen bytes where
+ * the docs map holds a whole serialized LinkedHashMap. Keyed by doc id like "docs", so both live
+ * in the same partition.
+ */
+public final class FacetCodec {
+
+    public static final byte VERSION = 1;
+
+    /** Facet fields of one doc; year 0 and empty strings mean unknown. */
+    public record Facets(String author, String language, int year) {}
+
+    private FacetCodec() {}
+
+    public static byte[] encode(Map<String, Object> doc) {
+        return encode(str(doc.get("author")), str(doc.get("language")), year(doc.get("year")));
+    }
+
+    public static byte[] encode(String author, String language, int year) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeInt(year);
+            out.writeUTF(language);
+            out.writeUTF(author);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** null for a missing or unreadable record, so callers can fall back to the docs map. */
+    public static Facets decode(byte[] data) {
+        if (data == null || data.length == 0 || data[0] != VERSION) return null;
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 1, data.length - 1))) {
+            int year = in.readInt();
+            String language = in.readUTF();
+            String author = in.readUTF();
+            return new Facets(author, language, year);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String str(Object o) {
+        return (o == null) ? "" : String.valueOf(o).trim();
+    }
+
+    private static int year(Object o) {
+        if (o instanceof Number n) return n.intValue();
+        try {
+            return (o == null) ? 0 : Integer.parseInt(String.valueOf(o).trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package es.ulpgc.bd.format;
+
+import java.util.Arrays;
+
+/**
+ * Posting list format stored in the "postings" map: one byte[] per term holding
+ * varint(count) followed by the sorted doc ids as varint deltas (first id absolute).
+ * Also the format of the "positions" map values (ascending token positions).
+ *
+ * Lists longer than BLOCK carry a skip table so a Cursor can jump over whole blocks of BLOCK ids:
+ * a 0 byte (never the first byte of a short list, whose count is >= 1), varint(count), varint(skip
+ * table bytes), then per block after the first a (last id of the previous block, byte offset of the
+ * block in the deltas) pair, both as varint deltas from the previous entry, then the deltas as above.
+ * Short lists keep the plain layout, so positions and lists written before skips decode unchanged.
+ */
+public final class PostingCodec {
+
+    public static final int[] NONE = new int[0];
+
+    /** Ids per skip block. */
+    public static final int BLOCK = 128;
+
+    private PostingCodec() {}
+
+    public static byte[] encode(int[] sortedIds) {
+        Buffer out = new Buffer(sortedIds.length * 2 + 5);
+        for (int id : sortedIds) out.add(id);
+        return out.toBytes();
+    }
+
+    public static int count(byte[] data) {
+        if (data == null || data.length == 0) return 0;
+        return new Cursor(data).remaining();
+    }
+
+    public static int[] decode(byte[] data) {
+        if (data == null || data.length == 0) return NONE;
+        Cursor c = new Cursor(data);
+        int[] out = new int[c.remaining()];
+        for (int i = 0; i < out.length; i++) out[i] = c.next();
+        return out;
+    }
+
+    /**
+     * Marks which of the ascending ids occur in the encoded list, skipping the blocks that lie between
+     * two ids, so a long list costs O(blocks + ids * BLOCK) instead of a full decode.
+     */
+    public static boolean[] members(byte[] data, int[] ids) {
+        boolean[] out = new boolean[ids.length];
+        Cursor c = new Cursor(data);
+        for (int i = 0; i < ids.length; i++) {
+            int at = c.advance(ids[i]);
+            if (at == Cursor.END) break;
+            out[i] = (at == ids[i]);
+        }
+        return out;
+    }
+
+    /**
+     * Streams the existing list against sorted, duplicate-free additions and removals.
+     * Adding an id already present or removing a missing one is a no-op, so applying
+     * the same update twice gives the same list. Returns null when the list ends up empty.
+     */
+    public static byte[] merge(byte[] data, int[] add, int[] remove) {
+        Cursor c = new Cursor(data);
+        Buffer out = new Buffer((data == null ? 0 : data.length) + add.length * 2 + 5);
+
+        int ai = 0;
+        int ri = 0;
+        boolean hasCur = c.hasNext();
+        int cur = hasCur ? c.next() : 0;
+
+        while (hasCur || ai < add.length) {
+            int next;
+            if (!hasCur || (ai < add.length && add[ai] < cur)) {
+                next = add[ai++];
+            } else {
+                next = cur;
+                if (ai < add.length && add[ai] == cur) ai++;
+                hasCur = c.hasNext();
+                if (hasCur) cur = c.next();
+            }
+
+            while (ri < remove.length && remove[ri] < next) ri++;
+            if (ri < remove.length && remove[ri] == next) continue;
+
+            out.add(next);
+        }
+
+        return out.count == 0 ? null : out.toBytes();
+    }
+
+    public static int[] sortedUnique(int[] ids) {
+        int[] s = ids.clone();
+        Arrays.sort(s);
+        int n = 0;
+        for (int i = 0; i < s.length; i++) {
+            if (i == 0 || s[i] != s[i - 1]) s[n++] = s[i];
+        }
+        return n == s.length ? s : Arrays.copyOf(s, n);
+    }
+
+    /** Iterates doc ids in ascending order without materialising the list. */
+    public static final class Cursor {
+
+        /** advance result when no id >= target is left. */
+        public static final int END = Integer.MAX_VALUE;
+
+        private final byte[] data;
+        private int pos;
+        private int remaining;
+        private int last;
+        private int count;
+
+        // skip table reader: next entry at skipPos (< skipEnd), decoded into the base and offset of block skipBlock
+        private int skipPos;
+        private int skipEnd;
+        private int dataStart;
+        private int skipBlock;
+        private int skipBase;
+        private int skipOffset;
+
+        // id the cursor rests on after advance (valid while hasCurrent)
+        private int current;
+        private boolean hasCurrent;
+
+        public Cursor(byte[] data) {
+            this.data = data;
+            if (data == null || data.length == 0) return;
+            if (data[0] != 0 || data.length == 1) {
+                this.remaining = readVarint();
+                return;
+            }
+            pos = 1;
+            count = readVarint();
+            remaining = count;
+            int skipBytes = readVarint();
+            skipPos = pos;
+            skipEnd = pos + skipBytes;
+            dataStart = skipEnd;
+            pos = dataStart;
+            nextSkip();
+        }
+
+        public int remaining() {
+            return remaining;
+        }
+
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        public int next() {
+            hasCurrent = false;
+            remaining--;
+            last += readVarint();
+            return last;
+        }
+
+        /**
+         * Smallest id >= target from the cursor's position on, or END. The cursor stays on that id,
+         * so advancing again to a target up to it returns it again; targets must not decrease.
+         * Whole blocks whose last id is below target are skipped without decoding them.
+         */
+        public int advance(int target) {
+            if (hasCurrent && current >= target) return current;
+
+            // block skipBlock starts after an id equal to skipBase: if that is below target, nothing before it matters
+            while (skipBlock > 0 && skipBase < target) {
+                if (dataStart + skipOffset > pos) {
+                    pos = dataStart + skipOffset;
+                    last = skipBase;
+                    remaining = count - skipBlock * BLOCK;
+                }
+                nextSkip();
+            }
+
+            while (remaining > 0) {
+                int id = next();
+                if (id >= target) {
+                    current = id;
+                    hasCurrent = true;
+                    return id;
+                }
+            }
+            current = END;
+            hasCurrent = true;
+            return END;
+        }
+
+        // reads the next skip entry, or sets skipBlock to 0 when the table is done
+        private void nextSkip() {
+            if (skipPos >= skipEnd) {
+                skipBlock = 0;
+                return;
+            }
+            int saved = pos;
+            pos = skipPos;
+            skipBase += readVarint();
+            skipOffset += readVarint();
+            skipPos = pos;
+            pos = saved;
+            skipBlock++;
+        }
+
+        private int readVarint() {
+            int v = 0;
+            int shift = 0;
+            while (true) {
+                byte b = data[pos++];
+                v |= (b & 0x7F) << shift;
+                if (b >= 0) return v;
+                shift += 7;
+            }
+        }
+    }
+
+    // deltas of ascending ids, with a skip entry recorded at the start of every block after the first
+    private static final class Buffer {
+        private byte[] buf;
+        private int len;
+        private int count;
+        private int last;
+        private int[] skips = NONE;
+        private int skipCount;
+
+        Buffer(int capacity) {
+            this.buf = new byte[Math.max(8, capacity)];
+        }
+
+        void add(int id) {
+            if (count > 0 && count % BLOCK == 0) {
+                if (skipCount * 2 == skips.length) skips = Arrays.copyOf(skips, Math.max(16, skips.length * 2));
+                skips[skipCount * 2] = last;
+                skips[skipCount * 2 + 1] = len;
+                skipCount++;
+            }
+            varint(id - last);
+            last = id;
+            count++;
+        }
+
+        private void varint(int v) {
+            if (len + 5 > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + 5));
+            while ((v & ~0x7F) != 0) {
+                buf[len++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[len++] = (byte) v;
+        }
+
+        byte[] toBytes() {
+            Buffer head = new Buffer(16 + skipCount * 6);
+            if (skipCount == 0) {
+                head.varint(count);
+            } else {
+                Buffer table = new Buffer(skipCount * 6);
+                int base = 0;
+                int offset = 0;
+                for (int s = 0; s < skipCount; s++) {
+                    table.varint(skips[s * 2] - base);
+                    table.varint(skips[s * 2 + 1] - offset);
+                    base = skips[s * 2];
+                    offset = skips[s * 2 + 1];
+                }
+                head.buf[head.len++] = 0;
+                head.varint(count);
+                head.varint(table.len);
+                head.append(table);
+            }
+            byte[] out = new byte[head.len + len];
+            System.arraycopy(head.buf, 0, out, 0, head.len);
+            System.arraycopy(buf, 0, out, head.len, len);
+            return out;
+        }
+
+        private void append(Buffer other) {
+            if (len + other.len > buf.length) buf = Arrays.copyOf(buf, len + other.len);
+            System.arraycopy(other.buf, 0, buf, len, other.len);
+            len += other.len;
+        }
+    }
+}
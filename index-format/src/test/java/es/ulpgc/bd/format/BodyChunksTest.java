@@ -0,0 +1,119 @@
+package es.ulpgc.bd.format;
+
+import es.ulpgc.bd.analysis.Analyzer;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BodyChunksTest {
+
+    private static final Pattern TOKEN = Pattern.compile("[\\p{L}\\p{N}]+");
+
+    @Test
+    void chunksCoverTheBodyAndStartAtTheirFirstTokenPosition() {
+        String body = body(20000, 11);
+        BodyChunks.Split split = BodyChunks.split(body, Analyzer.DEFAULT);
+
+        assertTrue(split.texts().size() > 1);
+        assertEquals(body, String.join("", split.texts()));
+        assertEquals(split.texts().size(), split.starts().length);
+
+        int position = 0;
+        for (int c = 0; c < split.texts().size(); c++) {
+            String text = split.texts().get(c);
+            assertEquals(position, split.starts()[c], "chunk " + c);
+            assertTrue(lastTokenEnd(text) <= BodyChunks.CHUNK_CHARS, "chunk " + c);
+            if (c > 0) assertTrue(TOKEN.matcher(text).lookingAt(), "chunk " + c + " starts at a token");
+            position += tokens(text);
+        }
+        assertEquals(tokens(body), position);
+    }
+
+    @Test
+    void chunksOnlyStartAtTokensTheChainKeeps() {
+        Analyzer english = Analyzer.fromSpec("english+stopwords");
+        String body = ("the whale and the sea of the captain ").repeat(2000);
+        BodyChunks.Split split = BodyChunks.split(body, english);
+
+        assertTrue(split.texts().size() > 1);
+        assertEquals(body, String.join("", split.texts()));
+        int position = 0;
+        for (int c = 0; c < split.texts().size(); c++) {
+            String text = split.texts().get(c);
+            assertEquals(position, split.starts()[c], "chunk " + c);
+            if (c > 0) {
+                Matcher m = TOKEN.matcher(text);
+                assertTrue(m.lookingAt(), "chunk " + c);
+                assertEquals(m.group(), english.terms(text).get(0), "chunk " + c + " starts at a kept token");
+            }
+            position += tokens(text);
+        }
+    }
+
+    @Test
+    void tokenLongerThanAChunkStaysWhole() {
+        String big = "x".repeat(BodyChunks.CHUNK_CHARS + 10);
+        BodyChunks.Split split = BodyChunks.split("call me " + big + " ishmael", Analyzer.DEFAULT);
+        assertEquals(3, split.texts().size());
+        assertEquals(big + " ", split.texts().get(1));
+        assertArrayEquals(new int[]{0, 2, 3}, split.starts());
+    }
+
+    @Test
+    void emptyBodyHasNoChunks() {
+        assertTrue(BodyChunks.split("", Analyzer.DEFAULT).texts().isEmpty());
+        assertEquals(0, BodyChunks.split(null, Analyzer.DEFAULT).starts().length);
+    }
+
+    @Test
+    void deflateRoundTrips() throws Exception {
+        String text = body(5000, 3) + " — ñandú, Ærø";
+        assertEquals(text, inflate(BodyChunks.deflate(text)));
+        assertEquals("1|7", BodyChunks.key(1, 7));
+    }
+
+    private static String body(int words, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) sb.append(random.nextInt(10) == 0 ? ".\n" : " ");
+            int len = 1 + random.nextInt(9);
+            for (int j = 0; j < len; j++) sb.append((char) ('a' + random.nextInt(26)));
+        }
+        return sb.toString();
+    }
+
+    private static int tokens(String text) {
+        int n = 0;
+        Matcher m = TOKEN.matcher(text);
+        while (m.find()) n++;
+        return n;
+    }
+
+    private static int lastTokenEnd(String text) {
+        int end = 0;
+        Matcher m = TOKEN.matcher(text);
+        while (m.find()) end = m.end();
+        return end;
+    }
+
+    private static String inflate(byte[] data) throws Exception {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            while (!inflater.finished()) out.write(buf, 0, inflater.inflate(buf));
+            return out.toString(StandardCharsets.UTF_8);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package es.ulpgc.bd.format;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PostingCodecTest {
+
+    @Test
+    void roundTripsAroundTheBlockSize() {
+        for (int n : new int[]{0, 1, 2, 127, 128, 129, 256, 257, 5000}) {
+            int[] ids = new int[n];
+            for (int i = 0; i < n; i++) ids[i] = i * 7 + (i % 3);
+            byte[] data = PostingCodec.encode(ids);
+            assertArrayEquals(ids, PostingCodec.decode(data), "n=" + n);
+            assertEquals(n, PostingCodec.count(data), "n=" + n);
+        }
+    }
+
+    @Test
+    void shortListsKeepThePlainLayout() {
+        // varint(3), then 5, +1, +294 (two varint bytes)
+        assertArrayEquals(new byte[]{3, 5, 1, (byte) 0xA6, 0x02}, PostingCodec.encode(new int[]{5, 6, 300}));
+        assertArrayEquals(new int[]{5, 6, 300}, PostingCodec.decode(new byte[]{3, 5, 1, (byte) 0xA6, 0x02}));
+    }
+
+    @Test
+    void emptyAndMissingListsDecodeToNothing() {
+        assertArrayEquals(PostingCodec.NONE, PostingCodec.decode(null));
+        assertArrayEquals(PostingCodec.NONE, PostingCodec.decode(new byte[0]));
+        assertArrayEquals(PostingCodec.NONE, PostingCodec.decode(PostingCodec.encode(PostingCodec.NONE)));
+        assertEquals(0, PostingCodec.count(null));
+    }
+
+    @Test
+    void mergeAddsAndRemoves() {
+        byte[] data = PostingCodec.encode(new int[]{2, 4, 6, 8});
+        byte[] merged = PostingCodec.merge(data, new int[]{1, 4, 9}, new int[]{6, 7});
+        assertArrayEquals(new int[]{1, 2, 4, 8, 9}, PostingCodec.decode(merged));
+
+        // applying the same update again changes nothing
+        assertArrayEquals(merged, PostingCodec.merge(merged, new int[]{1, 4, 9}, new int[]{6, 7}));
+    }
+
+    @Test
+    void mergeIntoNothingCreatesTheList() {
+        assertArrayEquals(new int[]{3, 10}, PostingCodec.decode(PostingCodec.merge(null, new int[]{3, 10}, PostingCodec.NONE)));
+    }
+
+    @Test
+    void mergeRemovingEverythingReturnsNull() {
+        byte[] data = PostingCodec.encode(new int[]{1, 2, 3});
+        assertNull(PostingCodec.merge(data, PostingCodec.NONE, new int[]{1, 2, 3}));
+    }
+
+    @Test
+    void mergeMatchesSetArithmeticOnLongLists() {
+        Random random = new Random(7);
+        for (int round = 0; round < 200; round++) {
+            TreeSet<Integer> expected = randomSet(random, random.nextInt(1500), 50_000);
+            byte[] data = PostingCodec.encode(toArray(expected));
+
+            int[] add = PostingCodec.sortedUnique(random.ints(random.nextInt(400), 0, 50_000).toArray());
+            int[] remove = PostingCodec.sortedUnique(random.ints(random.nextInt(400), 0, 50_000).toArray());
+            for (int id : add) expected.add(id);
+            for (int id : remove) expected.remove(id);
+
+            byte[] merged = PostingCodec.merge(data, add, remove);
+            if (expected.isEmpty()) assertNull(merged);
+            else assertArrayEquals(toArray(expected), PostingCodec.decode(merged));
+        }
+    }
+
+    @Test
+    void sortedUniqueSortsAndDropsDuplicates() {
+        assertArrayEquals(new int[]{1, 3, 5}, PostingCodec.sortedUnique(new int[]{5, 1, 3, 1, 5}));
+    }
+
+    @Test
+    void advanceSkipsBlocksAndStaysOnTheMatch() {
+        int[] ids = new int[1000];
+        for (int i = 0; i < ids.length; i++) ids[i] = i * 10;
+        PostingCodec.Cursor c = new PostingCodec.Cursor(PostingCodec.encode(ids));
+
+        assertEquals(0, c.advance(0));
+        assertEquals(5000, c.advance(4995));
+        assertEquals(5000, c.advance(5000));
+        assertEquals(9990, c.advance(9990));
+        assertEquals(PostingCodec.Cursor.END, c.advance(9991));
+    }
+
+    @Test
+    void membersMatchesTheDecodedList() {
+        Random random = new Random(11);
+        for (int round = 0; round < 300; round++) {
+            TreeSet<Integer> list = randomSet(random, random.nextInt(3000), 100_000);
+            int[] ids = toArray(list);
+            byte[] data = PostingCodec.encode(ids);
+
+            TreeSet<Integer> probes = randomSet(random, random.nextInt(200), 100_000);
+            for (int k = 0; k < 20 && ids.length > 0; k++) probes.add(ids[random.nextInt(ids.length)]);
+            int[] asked = toArray(probes);
+
+            boolean[] present = PostingCodec.members(data, asked);
+            for (int i = 0; i < asked.length; i++) {
+                assertEquals(list.contains(asked[i]), present[i], "id " + asked[i]);
+            }
+        }
+    }
+
+    private static TreeSet<Integer> randomSet(Random random, int size, int bound) {
+        TreeSet<Integer> s = new TreeSet<>();
+        while (s.size() < size) s.add(random.nextInt(bound));
+        return s;
+    }
+
+    private static int[] toArray(TreeSet<Integer> s) {
+        return s.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
@@ -0,0 +1,88 @@
+package es.ulpgc.bd.indexing;
+
+import com.hazelcast.map.EntryProcessor;
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.DataSerializable;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Adds/removes doc ids in the serialized RoaringBitmap stored under each key it runs on
+ * (filter-bitmaps map: "language:english", "year:1869", ...). An empty bitmap removes the entry.
+ */
+public class BitmapUpdateProcessor implements EntryProcessor<String, byte[], Integer>, DataSerializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int[] NONE = new int[0];
+
+    private Map<String, int[]> adds;
+    private Map<String, int[]> removes;
+
+    public BitmapUpdateProcessor() {}
+
+    public BitmapUpdateProcessor(Map<String, int[]> adds, Map<String, int[]> removes) {
+        this.adds = adds;
+        this.removes = removes;
+    }
+
+    @Override
+    public Integer process(Map.Entry<String, byte[]> entry) {
+        RoaringBitmap bitmap = fromBytes(entry.getValue());
+        for (int id : adds.getOrDefault(entry.getKey(), NONE)) bitmap.add(id);
+        for (int id : removes.getOrDefault(entry.getKey(), NONE)) bitmap.remove(id);
+
+        entry.setValue(bitmap.isEmpty() ? null : toBytes(bitmap));
+        return bitmap.getCardinality();
+    }
+
+    public static RoaringBitmap fromBytes(byte[] data) {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        if (data == null || data.length == 0) return bitmap;
+        try {
+            bitmap.deserialize(ByteBuffer.wrap(data));
+        } catch (IOException e) {
+            throw new IllegalStateException("corrupt bitmap", e);
+        }
+        return bitmap;
+    }
+
+    public static byte[] toBytes(RoaringBitmap bitmap) {
+        bitmap.runOptimize();
+        ByteBuffer buf = ByteBuffer.allocate(bitmap.serializedSizeInBytes());
+        bitmap.serialize(buf);
+        return buf.array();
+    }
+
+    @Override
+    public void writeData(ObjectDataOutput out) throws IOException {
+        write(out, adds);
+        write(out, removes);
+    }
+
+    @Override
+    public void readData(ObjectDataInput in) throws IOException {
+        adds = read(in);
+        removes = read(in);
+    }
+
+    private static void write(ObjectDataOutput out, Map<String, int[]> m) throws IOException {
+        out.writeInt(m.size());
+        for (Map.Entry<String, int[]> e : m.entrySet()) {
+            out.writeString(e.getKey());
+            out.writeIntArray(e.getValue());
+        }
+    }
+
+    private static Map<String, int[]> read(ObjectDataInput in) throws IOException {
+        int n = in.readInt();
+        Map<String, int[]> m = new HashMap<>(n * 2);
+        for (int i = 0; i < n; i++) m.put(in.readString(), in.readIntArray());
+        return m;
+    }
+}
@@ -0,0 +1,61 @@
+package es.ulpgc.bd.indexing;
+
+import com.hazelcast.map.EntryProcessor;
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.DataSerializable;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Adds a per-key delta to the count stored under each key it runs on (term-df); a count that
+ * drops to 0 or below removes the entry. Additions commute, so indexers updating the same terms
+ * concurrently never lose each other's changes.
+ */
+public class CountDeltaProcessor implements EntryProcessor<String, Integer, Integer>, DataSerializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private Map<String, Integer> deltas;
+
+    public CountDeltaProcessor() {}
+
+    public CountDeltaProcessor(Map<String, Integer> deltas) {
+        this.deltas = deltas;
+    }
+
+    @Override
+    public Integer process(Map.Entry<String, Integer> entry) {
+        int current = (entry.getValue() == null) ? 0 : entry.getValue();
+        int next = current + deltas.getOrDefault(entry.getKey(), 0);
+        entry.setValue(next > 0 ? next : null);
+        return Math.max(0, next);
+    }
+
+    @Override
+    public void writeData(ObjectDataOutput out) throws IOException {
+        write(out, deltas);
+    }
+
+    @Override
+    public void readData(ObjectDataInput in) throws IOException {
+        deltas = read(in);
+    }
+
+    static void write(ObjectDataOutput out, Map<String, Integer> m) throws IOException {
+        out.writeInt(m.size());
+        for (Map.Entry<String, Integer> e : m.entrySet()) {
+            out.writeString(e.getKey());
+            out.writeInt(e.getValue());
+        }
+    }
+
+    static Map<String, Integer> read(ObjectDataInput in) throws IOException {
+        int n = in.readInt();
+        Map<String, Integer> m = new HashMap<>(n * 2);
+        for (int i = 0; i < n; i++) m.put(in.readString(), in.readInt());
+        return m;
+    }
+}
@@ -0,0 +1,26 @@
+package es.ulpgc.bd.indexing;
+
+import com.hazelcast.map.EntryProcessor;
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.DataSerializable;
+
+import java.util.Map;
+
+/** Deletes every key it runs on; used with executeOnKeys to drop many keys in one call per partition. */
+public class DeleteEntryProcessor<K, V> implements EntryProcessor<K, V, Void>, DataSerializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public Void process(Map.Entry<K, V> entry) {
+        entry.setValue(null);
+        return null;
+    }
+
+    @Override
+    public void writeData(ObjectDataOutput out) {}
+
+    @Override
+    public void readData(ObjectDataInput in) {}
+}
@@ -16,11 +16,27 @@ public class HazelcastBoot {
 
         cfg.addMapConfig(new MapConfig("docs").setBackupCount(2));
         cfg.addMapConfig(new MapConfig("docTerms").setBackupCount(2));
+        cfg.addMapConfig(new MapConfig("term-df").setBackupCount(2));
+        cfg.addMapConfig(new MapConfig("term-maxtf").setBackupCount(2));
+        cfg.addMapConfig(new MapConfig("postings").setBackupCount(2));
+        cfg.addMapConfig(new MapConfig("filter-bitmaps").setBackupCount(2));
+        cfg.addMapConfig(new MapConfig("positions").setBackupCount(2));
+        cfg.addMapConfig(new MapConfig("doc-facets").setBackupCount(2));
+        cfg.addMapConfig(new MapConfig("doc-chunks").setBackupCount(2));
+        cfg.addMapConfig(new MapConfig("doc-chunk-starts").setBackupCount(2));
+        cfg.addMapConfig(new MapConfig(HazelcastInvertedIndexWriter.MAP_INDEX_UPDATES)
+                .setBackupCount(1)
+                .setTimeToLiveSeconds(HazelcastInvertedIndexWriter.INDEX_UPDATES_TTL_SECONDS));
 
-        MultiMapConfig mm = new MultiMapConfig("inverted-index");
-        mm.setBackupCount(2);
-        mm.setValueCollectionType(MultiMapConfig.ValueCollectionType.SET);
-        cfg.addMultiMapConfig(mm);
+        // partition owners batch near-cache invalidations for the search members (Hazelcast default 10s)
+        if (System.getProperty("hazelcast.map.invalidation.batchfrequency.seconds") == null) {
+            cfg.setProperty("hazelcast.map.invalidation.batchfrequency.seconds", "1");
+        }
+
+        // search members send scoring tasks to the data owners; every member must be able to load them
+        cfg.getUserCodeDeploymentConfig()
+                .setEnabled(true)
+                .setWhitelistedPrefixes("es.ulpgc.bd.");
 
         NetworkConfig net = cfg.getNetworkConfig();
         net.setPort(hzPort);
@@ -1,66 +1,152 @@
 package es.ulpgc.bd.indexing;
 
 import com.hazelcast.core.HazelcastInstance;
-import com.hazelcast.multimap.MultiMap;
+import com.hazelcast.map.EntryProcessor;
 import com.hazelcast.map.IMap;
-
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
-
+import com.hazelcast.partition.PartitionService;
+import es.ulpgc.bd.format.AuthorGrams;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Index map names and the commutative update helpers (postings, filter bitmaps, df, max tf) used by
+ * IndexingService.write, which is the only write path: it also keeps the doc statistics, positions,
+ * chunks and index generation in step with the postings.
+ */
 public final class HazelcastInvertedIndexWriter {
 
     public static final String MAP_DOCS = "docs";
     public static final String MAP_DOC_TERMS = "docTerms";
-    public static final String MULTIMAP_INVERTED = "inverted-index";
+    public static final String MAP_POSTINGS = "postings";
+    public static final String MAP_FILTER_BITMAPS = "filter-bitmaps";
+    public static final String MAP_POSITIONS = "positions";
+    public static final String MAP_DOC_FACETS = "doc-facets";
+    public static final String MAP_DOC_CHUNKS = "doc-chunks";
+    public static final String MAP_DOC_CHUNK_STARTS = "doc-chunk-starts";
+    public static final String MAP_TERM_DF = "term-df";
+    public static final String MAP_TERM_MAXTF = "term-maxtf";
+    public static final String MAP_INDEX_LOCKS = "index-locks";
+    // index generation -> epoch ms its writes completed, for the search members' invalidation lag (short TTL)
+    public static final String MAP_INDEX_UPDATES = "index-updates";
+    public static final int INDEX_UPDATES_TTL_SECONDS = 600;
+    // settings the whole index is built with; "analyzer" holds the Analyzer spec indexing and search both use
+    public static final String MAP_INDEX_SETTINGS = "index-settings";
+    public static final String SETTING_ANALYZER = "analyzer";
 
     private HazelcastInvertedIndexWriter() {}
 
-    public static IndexStats indexDocument(
-            HazelcastInstance hz,
-            int docId,
-            String text,
-            Map<String, Object> meta
-    ) {
-        if (hz == null) throw new IllegalArgumentException("HazelcastInstance is null");
-        if (text == null) text = "";
-
-        Map<String, Integer> tf = termFrequencies(text);
+    /**
+     * Applies posting additions/removals (term -> sorted unique doc ids) with one
+     * PostingUpdateProcessor per partition, carrying only that partition's terms,
+     * submitted in parallel. Waits for all of them.
+     */
+    public static void updatePostings(HazelcastInstance hz, Map<String, int[]> adds, Map<String, int[]> removes) {
+        submitPerPartition(hz, MAP_POSTINGS, adds, removes, PostingUpdateProcessor::new);
+    }
 
-        IMap<Integer, Map<String, Object>> docs = hz.getMap(MAP_DOCS);
-        docs.put(docId, meta == null ? Map.of("id", docId) : meta);
+    /** Same as updatePostings for the filter-bitmaps map (filter key -> doc ids). */
+    public static void updateFilterBitmaps(HazelcastInstance hz, Map<String, int[]> adds, Map<String, int[]> removes) {
+        submitPerPartition(hz, MAP_FILTER_BITMAPS, adds, removes, BitmapUpdateProcessor::new);
+    }
 
-        IMap<Integer, Map<String, Integer>> docTerms = hz.getMap(MAP_DOC_TERMS);
-        docTerms.put(docId, tf);
+    /** Adds df deltas (term -> +n/-n) with one CountDeltaProcessor per partition; terms reaching 0 are removed. */
+    public static void adjustDf(HazelcastInstance hz, Map<String, Integer> deltas) {
+        IMap<String, Integer> map = hz.getMap(MAP_TERM_DF);
+        submitGrouped(hz, map, deltas.keySet(), keys -> new CountDeltaProcessor(slice(deltas, keys)));
+    }
 
-        MultiMap<String, Integer> invertedIndex = hz.getMultiMap(MULTIMAP_INVERTED);
+    /** Raises term-maxtf to the given tfs where they are higher, one MaxValueProcessor per partition. */
+    public static void raiseMaxTf(HazelcastInstance hz, Map<String, Integer> tfs) {
+        IMap<String, Integer> map = hz.getMap(MAP_TERM_MAXTF);
+        submitGrouped(hz, map, tfs.keySet(), keys -> new MaxValueProcessor(slice(tfs, keys)));
+    }
 
-        Set<String> uniqueTerms = tf.keySet();
-        for (String term : uniqueTerms) {
-            invertedIndex.put(term, docId);
+    /**
+     * filter-bitmaps keys a document belongs to: exact "language:english" and "year:1869",
+     * plus one "author:<trigram>" per trigram of the normalized author for substring filters.
+     */
+    public static Set<String> filterKeys(Map<String, Object> doc) {
+        Set<String> keys = new LinkedHashSet<>();
+        if (doc == null) return keys;
+
+        Object lang = doc.get("language");
+        if (lang != null && !String.valueOf(lang).isBlank()) {
+            keys.add(languageKey(String.valueOf(lang)));
         }
+        Object year = doc.get("year");
+        if (year instanceof Number) {
+            keys.add(yearKey(((Number) year).intValue()));
+        }
+        Object author = doc.get("author");
+        if (author != null) {
+            for (String gram : AuthorGrams.grams(AuthorGrams.normalize(String.valueOf(author)))) {
+                keys.add(authorKey(gram));
+            }
+        }
+        return keys;
+    }
 
-        return new IndexStats(docId, tf.size(), uniqueTerms.size());
+    public static String languageKey(String language) {
+        return "language:" + language.trim().toLowerCase(Locale.ROOT);
     }
 
-    private static Map<String, Integer> termFrequencies(String text) {
-        Map<String, Integer> tf = new HashMap<>();
-        if (text == null || text.isBlank()) return tf;
+    public static String yearKey(int year) {
+        return "year:" + year;
+    }
 
-        String[] tokens = text
-                .toLowerCase()
-                .split("[^a-z0-9]+");
+    /** positions map key: one entry per (term, doc), value PostingCodec-encoded token positions. */
+    public static String positionsKey(String term, int docId) {
+        return term + "|" + docId;
+    }
 
-        for (String t : tokens) {
-            if (t == null || t.isBlank()) continue;
-            if (t.length() < 2) continue; // wycinamy syf typu "a", "i"
+    public static String authorKey(String gram) {
+        return "author:" + gram;
+    }
 
-            tf.merge(t, 1, Integer::sum);
+    private static void submitPerPartition(
+            HazelcastInstance hz,
+            String mapName,
+            Map<String, int[]> adds,
+            Map<String, int[]> removes,
+            BiFunction<Map<String, int[]>, Map<String, int[]>, EntryProcessor<String, byte[], Integer>> processor
+    ) {
+        Set<String> keys = new HashSet<>(adds.keySet());
+        keys.addAll(removes.keySet());
+        IMap<String, byte[]> map = hz.getMap(mapName);
+        submitGrouped(hz, map, keys, group -> processor.apply(slice(adds, group), slice(removes, group)));
+    }
+
+    /**
+     * Runs processorFor(partition's keys) on the keys of each partition, all partitions in parallel,
+     * so each processor carries only its own keys' data. Waits for all of them.
+     */
+    private static <V> void submitGrouped(HazelcastInstance hz, IMap<String, V> map, Set<String> keys,
+                                          Function<Set<String>, EntryProcessor<String, V, ?>> processorFor) {
+        if (keys.isEmpty()) return;
+
+        PartitionService partitions = hz.getPartitionService();
+        Map<Integer, Set<String>> byPartition = new HashMap<>();
+        for (String key : keys) {
+            byPartition.computeIfAbsent(partitions.getPartition(key).getPartitionId(), k -> new HashSet<>()).add(key);
+        }
+
+        List<CompletableFuture<?>> pending = new ArrayList<>();
+        for (Set<String> group : byPartition.values()) {
+            pending.add(map.submitToKeys(group, processorFor.apply(group)).toCompletableFuture());
         }
 
-        return tf;
+        CompletableFuture.allOf(pending.toArray(new CompletableFuture[0])).join();
     }
 
-    public record IndexStats(int docId, int distinctTermsTf, int uniqueTermsIndexed) {}
+    private static <T> Map<String, T> slice(Map<String, T> values, Set<String> keys) {
+        Map<String, T> out = new HashMap<>();
+        for (String k : keys) {
+            T v = values.get(k);
+            if (v != null) out.put(k, v);
+        }
+        return out;
+    }
 }
@@ -1,8 +1,10 @@
 package es.ulpgc.bd.indexing;
 
 import com.hazelcast.core.HazelcastInstance;
+import es.ulpgc.bd.analysis.Analyzer;
 import es.ulpgc.bd.indexing.mq.MqConsumer;
 import es.ulpgc.bd.indexing.service.IndexingService;
+import es.ulpgc.bd.indexing.service.RebuildJobs;
 import io.javalin.Javalin;
 
 import java.net.InetAddress;
@@ -32,8 +34,29 @@ public class IndexingServiceApp {
         final String ingestQueue = a.getOrDefault("ingestQueue", "ingestion.ingested");
         final boolean mqEnabled = a.getOrDefault("mqIndexingEnabled", "true").equalsIgnoreCase("true");
 
+        // positional index for phrase queries; without it phrases are matched as AND queries
+        final boolean positions = a.getOrDefault("positions", "true").equalsIgnoreCase("true");
+
+        // compressed body chunks for result snippets; without them search returns no snippets
+        final boolean snippets = a.getOrDefault("snippets", "true").equalsIgnoreCase("true");
+
+        // bulk indexing: MQ events are indexed in windows of up to batchDocs books or batchMs ms,
+        // rebuild in chunks of batchDocs; each window is one write per map and one posting update per partition
+        final int batchDocs = Integer.parseInt(a.getOrDefault("batchDocs", "32"));
+        final long batchMs = Long.parseLong(a.getOrDefault("batchMs", "500"));
+
+        // rebuild jobs: default and maximum workers per job, books/s fetched from one ingestion source (0 = no limit)
+        final int rebuildParallelism = Integer.parseInt(a.getOrDefault("rebuildParallelism", "4"));
+        final int rebuildMaxParallelism = Integer.parseInt(a.getOrDefault("rebuildMaxParallelism", "16"));
+        final double rebuildRate = Double.parseDouble(a.getOrDefault("rebuildRatePerSource", "0"));
+
+        // analyzer chain of a new index (Analyzer.fromSpec): "none", or a language with stopwords/stemming,
+        // e.g. "english+stopwords+stem"; an existing index keeps the chain it was built with
+        final Analyzer analyzer = Analyzer.fromSpec(a.getOrDefault("analyzer", "none"));
+
         final HazelcastInstance hz = HazelcastBoot.startMember(hzCluster, hzMembers, hzPort, hzInterface);
-        final IndexingService service = new IndexingService(hz);
+        final IndexingService service = new IndexingService(hz, positions, snippets, batchDocs, analyzer);
+        final RebuildJobs rebuilds = new RebuildJobs(hz, service, rebuildParallelism, rebuildMaxParallelism, rebuildRate);
 
         final Javalin app = Javalin.create();
 
@@ -50,6 +73,12 @@ public class IndexingServiceApp {
             s.put("ingestion", ingestion);
             s.put("ingestQueue", ingestQueue);
             s.put("mqEnabled", mqEnabled);
+            s.put("positions", positions);
+            s.put("snippets", snippets);
+            s.put("batchMs", batchMs);
+            s.put("rebuildParallelism", rebuildParallelism);
+            s.put("rebuildMaxParallelism", rebuildMaxParallelism);
+            s.put("rebuildRatePerSource", rebuildRate);
             s.putAll(service.stats());
             ctx.json(s);
         });
@@ -79,18 +108,42 @@ public class IndexingServiceApp {
             ctx.json(service.update(bookId, base));
         });
 
-        // POST /index/rebuild?origin=http://ingestion:7001
+        // POST /index/rebuild?origin=http://ingestion:7001&parallelism=8&rate=20
+        // starts a background job and answers 202 with its id; progress at GET /index/rebuild/{jobId}
         app.post("/index/rebuild", ctx -> {
             final String origin = ctx.queryParam("origin");
             final String base = (origin != null && !origin.isBlank()) ? origin : ingestion;
-            ctx.json(service.rebuild(base));
+            if (base == null || base.isBlank()) {
+                ctx.status(400).json(Map.of("status", "error", "message", "missing ingestion base url"));
+                return;
+            }
+
+            final Integer parallelism;
+            final Double rate;
+            try {
+                parallelism = optionalParallelism(ctx.queryParam("parallelism"));
+                rate = optionalRate(ctx.queryParam("rate"));
+            } catch (IllegalArgumentException e) {
+                ctx.status(400).json(Map.of("status", "error", "message", e.getMessage()));
+                return;
+            }
+            ctx.status(202).json(rebuilds.start(base, parallelism, rate));
+        });
+
+        app.get("/index/rebuild/{jobId}", ctx -> {
+            Map<String, Object> job = rebuilds.report(ctx.pathParam("jobId"));
+            if (job == null) {
+                ctx.status(404).json(Map.of("status", "error", "message", "unknown rebuild job"));
+                return;
+            }
+            ctx.json(job);
         });
 
         app.start(port);
 
         // ---------- MQ consumer ----------
         if (mqEnabled) {
-            MqConsumer consumer = new MqConsumer(mq, ingestQueue, ingestion, service);
+            MqConsumer consumer = new MqConsumer(mq, ingestQueue, ingestion, service, batchDocs, batchMs);
             consumer.startAsync();
         }
 
@@ -99,6 +152,9 @@ public class IndexingServiceApp {
             try { hz.shutdown(); } catch (Exception ignored) {}
         }));
 
+        // jobs left running by a node that died while this one was down
+        rebuilds.resumeOrphaned();
+
         System.out.println("Indexing listening on :" + port);
     }
 
@@ -134,6 +190,28 @@ public class IndexingServiceApp {
         return out;
     }
 
+    // rebuild ?parallelism: null if absent, else a positive integer (clamped to the maximum by RebuildJobs)
+    private static Integer optionalParallelism(String value) {
+        if (value == null || value.isBlank()) return null;
+        try {
+            int n = Integer.parseInt(value.trim());
+            if (n >= 1) return n;
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("Invalid parallelism (a positive integer)");
+    }
+
+    // rebuild ?rate: null if absent, else a finite number of books/s >= 0
+    private static Double optionalRate(String value) {
+        if (value == null || value.isBlank()) return null;
+        try {
+            double r = Double.parseDouble(value.trim());
+            if (Double.isFinite(r) && r >= 0) return r;
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("Invalid rate (books/s, 0 for no limit)");
+    }
+
     @SuppressWarnings("unused")
     private static String localIpGuess() {
         try {
@@ -0,0 +1,45 @@
+package es.ulpgc.bd.indexing;
+
+import com.hazelcast.map.EntryProcessor;
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.DataSerializable;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Raises the value stored under each key it runs on (term-maxtf) to the given one if it is higher.
+ * max is commutative and idempotent, so concurrent or repeated updates give the same result.
+ */
+public class MaxValueProcessor implements EntryProcessor<String, Integer, Integer>, DataSerializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private Map<String, Integer> values;
+
+    public MaxValueProcessor() {}
+
+    public MaxValueProcessor(Map<String, Integer> values) {
+        this.values = values;
+    }
+
+    @Override
+    public Integer process(Map.Entry<String, Integer> entry) {
+        Integer current = entry.getValue();
+        Integer value = values.get(entry.getKey());
+        if (value == null || (current != null && current >= value)) return current;
+        entry.setValue(value);
+        return value;
+    }
+
+    @Override
+    public void writeData(ObjectDataOutput out) throws IOException {
+        CountDeltaProcessor.write(out, values);
+    }
+
+    @Override
+    public void readData(ObjectDataInput in) throws IOException {
+        values = CountDeltaProcessor.read(in);
+    }
+}
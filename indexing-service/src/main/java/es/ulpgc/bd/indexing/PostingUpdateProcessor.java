@@ -0,0 +1,69 @@
+package es.ulpgc.bd.indexing;
+
+import com.hazelcast.map.EntryProcessor;
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.DataSerializable;
+import es.ulpgc.bd.format.PostingCodec;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Merges doc id additions/removals into the encoded posting list of each key it runs on.
+ * Runs on the partition owner (and its backups), so only the deltas cross the network.
+ * One instance carries the deltas for a group of keys; ids must be sorted and unique.
+ * DataSerializable because Hazelcast serializes it once per partition operation and backup.
+ */
+public class PostingUpdateProcessor implements EntryProcessor<String, byte[], Integer>, DataSerializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private Map<String, int[]> adds;
+    private Map<String, int[]> removes;
+
+    public PostingUpdateProcessor() {}
+
+    public PostingUpdateProcessor(Map<String, int[]> adds, Map<String, int[]> removes) {
+        this.adds = adds;
+        this.removes = removes;
+    }
+
+    @Override
+    public Integer process(Map.Entry<String, byte[]> entry) {
+        int[] add = adds.getOrDefault(entry.getKey(), PostingCodec.NONE);
+        int[] remove = removes.getOrDefault(entry.getKey(), PostingCodec.NONE);
+
+        byte[] merged = PostingCodec.merge(entry.getValue(), add, remove);
+        entry.setValue(merged);
+        return PostingCodec.count(merged);
+    }
+
+    @Override
+    public void writeData(ObjectDataOutput out) throws IOException {
+        write(out, adds);
+        write(out, removes);
+    }
+
+    @Override
+    public void readData(ObjectDataInput in) throws IOException {
+        adds = read(in);
+        removes = read(in);
+    }
+
+    private static void write(ObjectDataOutput out, Map<String, int[]> m) throws IOException {
+        out.writeInt(m.size());
+        for (Map.Entry<String, int[]> e : m.entrySet()) {
+            out.writeString(e.getKey());
+            out.writeIntArray(e.getValue());
+        }
+    }
+
+    private static Map<String, int[]> read(ObjectDataInput in) throws IOException {
+        int n = in.readInt();
+        Map<String, int[]> m = new HashMap<>(n * 2);
+        for (int i = 0; i < n; i++) m.put(in.readString(), in.readIntArray());
+        return m;
+    }
+}
@@ -2,10 +2,15 @@ package es.ulpgc.bd.indexing.client;
 
 import com.google.gson.Gson;
 
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
@@ -27,6 +32,23 @@ public class IngestionClient {
         return getText(norm(baseUrl) + "/ingest/file/" + bookId + "/body");
     }
 
+    /** The body as a stream decoded with the response charset (UTF-8 if none); the caller closes it. */
+    public Reader openBody(String baseUrl, int bookId) throws Exception {
+        String url = norm(baseUrl) + "/ingest/file/" + bookId + "/body";
+        HttpRequest req = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(Duration.ofSeconds(12))
+                .GET()
+                .build();
+
+        HttpResponse<InputStream> res = http.send(req, HttpResponse.BodyHandlers.ofInputStream());
+        if (res.statusCode() < 200 || res.statusCode() >= 300) {
+            res.body().close();
+            throw new RuntimeException("HTTP " + res.statusCode() + " for " + url);
+        }
+        return new InputStreamReader(res.body(), charset(res.headers().firstValue("Content-Type").orElse("")));
+    }
+
     public String fetchMetaOrNull(String baseUrl, int bookId) {
         try {
             return getText(norm(baseUrl) + "/ingest/file/" + bookId + "/meta");
@@ -64,6 +86,18 @@ public class IngestionClient {
         throw new RuntimeException("HTTP " + res.statusCode() + " for " + url);
     }
 
+    private static Charset charset(String contentType) {
+        for (String part : contentType.split(";")) {
+            String p = part.trim();
+            if (p.regionMatches(true, 0, "charset=", 0, 8)) {
+                try {
+                    return Charset.forName(p.substring(8).replace("\"", "").trim());
+                } catch (Exception ignored) {}
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
     private static String norm(String baseUrl) {
         if (baseUrl == null) return "";
         String t = baseUrl.trim();
@@ -6,9 +6,21 @@ import org.apache.activemq.ActiveMQConnectionFactory;
 
 import javax.jms.*;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
-
+import java.util.Map;
+
+/**
+ * Consumes document events in windows of up to batchDocs events or batchMs milliseconds, whichever
+ * comes first, and indexes each window with one IndexingService.updateBatch call inside one JMS
+ * transaction. A failed window is rolled back; its redelivered events are then indexed one at a time,
+ * so a book that keeps failing doesn't take the rest of its window with it.
+ *
+ * A received message belongs to the session's open transaction, so the next commit acknowledges it,
+ * whatever it was committed for. A redelivered event that arrives while a window is open is therefore
+ * indexed on its own but committed together with that window: if either fails, both are rolled back.
+ */
 public class MqConsumer {
 
     private final Gson gson = new Gson();
@@ -17,12 +29,21 @@ public class MqConsumer {
     private final String queueName;
     private final String defaultOrigin;
     private final IndexingService indexing;
+    private final int batchDocs;
+    private final long batchMs;
 
     public MqConsumer(String brokerUrl, String queueName, String defaultOrigin, IndexingService indexing) {
+        this(brokerUrl, queueName, defaultOrigin, indexing, 1, 0);
+    }
+
+    public MqConsumer(String brokerUrl, String queueName, String defaultOrigin, IndexingService indexing,
+                      int batchDocs, long batchMs) {
         this.brokerUrl = brokerUrl;
         this.queueName = queueName;
         this.defaultOrigin = defaultOrigin;
         this.indexing = indexing;
+        this.batchDocs = Math.max(1, batchDocs);
+        this.batchMs = Math.max(0, batchMs);
     }
 
     public void startAsync() {
@@ -57,22 +78,10 @@ public class MqConsumer {
             Destination destination = session.createQueue(queueName);
             MessageConsumer consumer = session.createConsumer(destination);
 
-            System.out.println("[MQ] Listening queue=" + queueName + " broker=" + brokerUrl);
+            System.out.println("[MQ] Listening queue=" + queueName + " broker=" + brokerUrl
+                    + " batchDocs=" + batchDocs + " batchMs=" + batchMs);
 
-            while (true) {
-                Message msg = consumer.receive(1000);
-                if (msg == null) continue;
-
-                try {
-                    handleMessage(msg);
-                    session.commit();
-                } catch (Exception ex) {
-                    System.out.println("[MQ] Processing failed -> rollback: " + ex.getMessage());
-                    ex.printStackTrace();
-                    try { session.rollback(); } catch (Exception ignored) {}
-                    sleep(500);
-                }
-            }
+            consume(session, consumer);
 
         } finally {
             try { if (session != null) session.close(); } catch (Exception ignored) {}
@@ -80,24 +89,83 @@ public class MqConsumer {
         }
     }
 
-    private void handleMessage(Message msg) throws Exception {
-        DocumentEvent ev = parseEvent(msg);
-        if (ev == null || ev.bookId <= 0) {
-            System.out.println("[MQ] Bad/empty event, msg=" + msg);
-            return;
-        }
+    // receives and indexes events until the session fails
+    void consume(Session session, MessageConsumer consumer) throws JMSException {
+        List<DocumentEvent> window = new ArrayList<>();
+        long windowEnd = 0;
+
+        while (true) {
+            long wait = window.isEmpty() ? 1000 : Math.max(1, windowEnd - System.currentTimeMillis());
+            Message msg = consumer.receive(wait);
+
+            if (msg != null && msg.getJMSRedelivered()) {
+                // part of a window that failed: index it alone, after the open window, in the same commit
+                flush(session, window, Collections.singletonList(parseOrSkip(msg)));
+                window.clear();
+                continue;
+            }
+
+            if (msg != null) {
+                DocumentEvent ev = parseOrSkip(msg);
+                if (ev != null) {
+                    if (window.isEmpty()) windowEnd = System.currentTimeMillis() + batchMs;
+                    window.add(ev);
+                }
+            }
 
-        List<String> sources = buildSources(ev);
+            if (window.size() >= batchDocs || (!window.isEmpty() && System.currentTimeMillis() >= windowEnd)) {
+                flush(session, window);
+                window.clear();
+            } else if (window.isEmpty() && msg != null) {
+                session.commit(); // only bad events so far
+            }
+        }
+    }
 
-        System.out.println("[MQ] document.ingested bookId=" + ev.bookId + " sources=" + sources);
+    /**
+     * Indexes each group of events with its own updateBatch call (nulls are bad events, just acknowledged),
+     * then commits them all, or rolls them all back if any book failed.
+     */
+    @SafeVarargs
+    private void flush(Session session, List<DocumentEvent>... groups) {
+        try {
+            for (List<DocumentEvent> group : groups) index(group);
+            session.commit();
+        } catch (Exception ex) {
+            System.out.println("[MQ] Processing failed -> rollback: " + ex.getMessage());
+            ex.printStackTrace();
+            try { session.rollback(); } catch (Exception ignored) {}
+            sleep(500);
+        }
+    }
 
-        var out = indexing.update(ev.bookId, sources);
+    private void index(List<DocumentEvent> events) throws Exception {
+        List<IndexingService.Job> jobs = new ArrayList<>();
+        for (DocumentEvent ev : events) {
+            if (ev == null) continue;
+            List<String> sources = buildSources(ev);
+            System.out.println("[MQ] document.ingested bookId=" + ev.bookId + " sources=" + sources);
+            jobs.add(new IndexingService.Job(ev.bookId, sources));
+        }
+        if (jobs.isEmpty()) return;
 
-        if (out != null && "error".equalsIgnoreCase(String.valueOf(out.get("status")))) {
-            throw new RuntimeException("indexing.update returned error: " + out);
+        List<Map<String, Object>> out = indexing.updateBatch(jobs);
+        for (Map<String, Object> result : out) {
+            if ("error".equalsIgnoreCase(String.valueOf(result.get("status")))) {
+                throw new RuntimeException("indexing.update returned error: " + result);
+            }
         }
+        System.out.println("[MQ] indexed " + jobs.size() + " book(s): "
+                + jobs.stream().map(j -> String.valueOf(j.bookId())).toList());
+    }
 
-        System.out.println("[MQ] indexed bookId=" + ev.bookId);
+    private DocumentEvent parseOrSkip(Message msg) {
+        try {
+            DocumentEvent ev = parseEvent(msg);
+            if (ev != null && ev.bookId > 0) return ev;
+        } catch (Exception ignored) {}
+        System.out.println("[MQ] Bad/empty event, msg=" + msg);
+        return null;
     }
 
     private List<String> buildSources(DocumentEvent ev) {
@@ -2,35 +2,115 @@ package es.ulpgc.bd.indexing.service;
 
 import com.google.gson.Gson;
 import com.hazelcast.core.HazelcastInstance;
-import com.hazelcast.cp.lock.FencedLock;
+import com.hazelcast.cp.IAtomicLong;
 import com.hazelcast.map.IMap;
-import com.hazelcast.multimap.MultiMap;
+import es.ulpgc.bd.analysis.Analyzer;
+import es.ulpgc.bd.format.BodyChunks;
+import es.ulpgc.bd.format.FacetCodec;
+import es.ulpgc.bd.format.PostingCodec;
+import es.ulpgc.bd.indexing.DeleteEntryProcessor;
+import es.ulpgc.bd.indexing.HazelcastInvertedIndexWriter;
 import es.ulpgc.bd.indexing.client.IngestionClient;
+import es.ulpgc.bd.indexing.util.BodyAnalyzer;
 
+import java.io.Reader;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class IndexingService {
 
+    // held per book id for the duration of its write; bounded by a lease in case an indexer hangs
+    private static final long BOOK_LOCK_LEASE_SECONDS = 300;
+
     private final HazelcastInstance hz;
-    private final FencedLock lock;
+
+    // per-book write locks (keys only, never written): books are serialized one by one, so indexers on
+    // different nodes write different books in parallel; shared structures only get commutative updates
+    private final IMap<Integer, Boolean> bookLocks;
 
     private final IngestionClient ingestion = new IngestionClient();
     private final Gson gson = new Gson();
 
     private final IMap<Integer, Map<String, Object>> docs;
     private final IMap<Integer, Map<String, Integer>> docTerms;
-    private final MultiMap<String, Integer> invertedIndex;
 
-    private final Pattern token = Pattern.compile("[\\p{L}\\p{N}]+");
+    // compact facet fields per doc (FacetCodec), counted by search next to the docs map
+    private final IMap<Integer, byte[]> docFacets;
+
+    // optional positional index for phrase queries: "term|docId" -> encoded token positions
+    private final IMap<String, byte[]> positions;
+    private final boolean writePositions;
+
+    // optional snippet store: deflated body chunks ("docId|chunk") and each chunk's first token position
+    private final IMap<String, byte[]> chunks;
+    private final IMap<Integer, int[]> chunkStarts;
+    private final boolean writeSnippets;
+
+    // term statistics read by search: document frequency per term (and, through
+    // HazelcastInvertedIndexWriter, "term-maxtf": highest tf seen per term, the upper bound for top-k
+    // pruning, never lowered on removal), total indexed docs and the sum of their lengths in tokens
+    // (BM25 average length = totalLength / docCount); all updated with atomic deltas
+    private final IMap<String, Integer> termDf;
+    private final IAtomicLong docCount;
+    private final IAtomicLong totalLength;
+
+    // bumped after every update so search drops cached results computed on an older index; each new
+    // generation is stamped with the time its writes completed, so search members can measure how late
+    // they see updates
+    private final IAtomicLong generation;
+    private final IMap<Long, Long> updates;
+
+    // the index's analyzer chain, shared with search through the index settings
+    private final Analyzer analyzer;
+
+    // books per updateBatch call in bulk paths; written batches and the books they carried
+    private final int batchDocs;
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong batchedDocs = new AtomicLong();
 
     public IndexingService(HazelcastInstance hz) {
+        this(hz, true, true, 1, Analyzer.DEFAULT);
+    }
+
+    /**
+     * @param analyzer chain to build the index with, if the cluster has none yet; once one is published in
+     *                 the index settings every indexer and search member uses it (see indexAnalyzer)
+     */
+    public IndexingService(HazelcastInstance hz, boolean writePositions, boolean writeSnippets, int batchDocs,
+                           Analyzer analyzer) {
         this.hz = hz;
-        this.lock = hz.getCPSubsystem().getLock("inverted-index-lock");
+        this.analyzer = indexAnalyzer(hz, analyzer);
+        this.batchDocs = Math.max(1, batchDocs);
+        this.writePositions = writePositions;
+        this.writeSnippets = writeSnippets;
+        this.bookLocks = hz.getMap(HazelcastInvertedIndexWriter.MAP_INDEX_LOCKS);
         this.docs = hz.getMap("docs");
         this.docTerms = hz.getMap("docTerms");
-        this.invertedIndex = hz.getMultiMap("inverted-index");
+        this.docFacets = hz.getMap(HazelcastInvertedIndexWriter.MAP_DOC_FACETS);
+        this.positions = hz.getMap(HazelcastInvertedIndexWriter.MAP_POSITIONS);
+        this.chunks = hz.getMap(HazelcastInvertedIndexWriter.MAP_DOC_CHUNKS);
+        this.chunkStarts = hz.getMap(HazelcastInvertedIndexWriter.MAP_DOC_CHUNK_STARTS);
+        this.termDf = hz.getMap(HazelcastInvertedIndexWriter.MAP_TERM_DF);
+        this.docCount = hz.getCPSubsystem().getAtomicLong("doc-count");
+        this.totalLength = hz.getCPSubsystem().getAtomicLong("doc-length-total");
+        this.generation = hz.getCPSubsystem().getAtomicLong("index-generation");
+        this.updates = hz.getMap(HazelcastInvertedIndexWriter.MAP_INDEX_UPDATES);
+    }
+
+    /**
+     * Publishes wanted as the index's analyzer unless one is set already, and returns the one in effect.
+     * Terms written with one chain can't be found with another, so a different chain only takes effect
+     * after the setting is changed and the index rebuilt.
+     */
+    private static Analyzer indexAnalyzer(HazelcastInstance hz, Analyzer wanted) {
+        IMap<String, String> settings = hz.getMap(HazelcastInvertedIndexWriter.MAP_INDEX_SETTINGS);
+        String current = settings.putIfAbsent(HazelcastInvertedIndexWriter.SETTING_ANALYZER, wanted.spec());
+        if (current == null) return wanted;
+        if (!current.equals(wanted.spec())) {
+            System.out.println("[INDEX] analyzer '" + wanted.spec() + "' ignored: the index uses '" + current + "'");
+        }
+        return Analyzer.fromSpec(current);
     }
 
     public Map<String, Object> update(int bookId, String ingestionBaseUrl) throws Exception {
@@ -41,110 +121,257 @@ public class IndexingService {
     }
 
     public Map<String, Object> update(int bookId, List<String> ingestionBases) throws Exception {
-        List<String> bases = normalizeBases(ingestionBases);
+        return updateBatch(List.of(new Job(bookId, ingestionBases))).get(0);
+    }
 
-        if (bases.isEmpty()) {
-            return Map.of("book_id", bookId, "status", "error", "message", "no ingestion sources provided");
+    /** A book to (re)index and the ingestion sources to try, in order. */
+    public record Job(int bookId, List<String> sources) {}
+
+    /**
+     * Indexes several books with one write per structure instead of one per book: the books are fetched
+     * one after the other, then docs/docTerms/doc-facets/positions/chunks go out with putAll, and the
+     * posting and filter bitmap changes of all books are merged per key and applied with one entry
+     * processor per partition. df, max tf, doc count, total length and the generation are updated once.
+     * The generation is only bumped if some book reached the write (a batch whose fetches all failed
+     * leaves the index, and the search caches keyed on it, untouched). If a book appears twice, the last job wins.
+     *
+     * Books are fetched without any lock; only their own ids are locked (in ascending order, so
+     * overlapping batches can't deadlock) while their previous versions are read and replaced.
+     *
+     * @return one result per job, in order: status ok, or error with the reason
+     */
+    public List<Map<String, Object>> updateBatch(List<Job> jobs) throws Exception {
+        List<Map<String, Object>> out = new ArrayList<>(Collections.nCopies(jobs.size(), null));
+
+        Map<Integer, Fetched> books = new LinkedHashMap<>();
+        for (int i = 0; i < jobs.size(); i++) {
+            Job job = jobs.get(i);
+            Object fetched = fetch(job.bookId(), normalizeBases(job.sources()));
+            if (fetched instanceof Fetched f) {
+                books.remove(job.bookId());
+                books.put(job.bookId(), f);
+            } else {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> error = (Map<String, Object>) fetched;
+                out.set(i, error);
+            }
         }
 
-        lock.lock();
+        List<Integer> locked = new ArrayList<>();
+        // set once the write starts: a write that fails halfway may already have changed some maps
+        boolean written = false;
         try {
-            removeIfExists(bookId);
-
-            String usedBase = null;
-            String header = null;
-            String body = null;
-            String meta = null;
-            Exception lastErr = null;
-
-            for (String base : bases) {
-                try {
-                    header = ingestion.fetchHeader(base, bookId);
-                    body = ingestion.fetchBody(base, bookId);
-                    meta = ingestion.fetchMetaOrNull(base, bookId);
-                    usedBase = base;
-                    break;
-                } catch (Exception ex) {
-                    lastErr = ex;
-                }
+            for (int id : new TreeSet<>(books.keySet())) {
+                bookLocks.lock(id, BOOK_LOCK_LEASE_SECONDS, TimeUnit.SECONDS);
+                locked.add(id);
             }
 
-            if (usedBase == null) {
-                return Map.of(
-                        "book_id", bookId,
-                        "status", "error",
-                        "message", "cannot fetch document from any source",
-                        "sources", bases,
-                        "lastError", lastErr == null ? "" : lastErr.getMessage()
-                );
+            written = !books.isEmpty();
+            write(books.values());
+            batches.incrementAndGet();
+            batchedDocs.addAndGet(books.size());
+
+            for (int i = 0; i < jobs.size(); i++) {
+                if (out.get(i) != null) continue;
+                Fetched f = books.get(jobs.get(i).bookId());
+                out.set(i, Map.of(
+                        "book_id", f.bookId(),
+                        "status", "ok",
+                        "ingestion", f.base(),
+                        "terms", f.tf().size()
+                ));
+            }
+            return out;
+
+        } finally {
+            if (written) {
+                long writtenMs = System.currentTimeMillis();
+                try { updates.set(generation.incrementAndGet(), writtenMs); } catch (Exception ignored) {}
+            }
+            for (int id : locked) {
+                try { bookLocks.unlock(id); } catch (Exception ignored) {}
             }
+        }
+    }
+
+    /** Books per updateBatch call in bulk paths (MQ windows, rebuild jobs). */
+    public int batchDocs() {
+        return batchDocs;
+    }
 
-            Map<String, Object> metaObj = parseMeta(meta);
-            Map<String, Object> doc = parseHeader(header, metaObj);
-            Map<String, Integer> tf = termFreq(body);
+    // a fetched and parsed book, ready to be written
+    private record Fetched(int bookId, String base, Map<String, Object> doc, Map<String, int[]> termPositions,
+                           Map<String, Integer> tf, int length, List<byte[]> chunks, int[] chunkStarts) {}
+
+    // Fetched, or the error result for the book
+    private Object fetch(int bookId, List<String> bases) {
+        if (bases.isEmpty()) {
+            return Map.of("book_id", bookId, "status", "error", "message", "no ingestion sources provided");
+        }
 
-            docs.put(bookId, doc);
-            docTerms.put(bookId, tf);
+        String usedBase = null;
+        String header = null;
+        BodyAnalyzer.Result body = null;
+        String meta = null;
+        Exception lastErr = null;
 
-            for (String term : tf.keySet()) {
-                invertedIndex.put(term, bookId);
+        for (String base : bases) {
+            try {
+                header = ingestion.fetchHeader(base, bookId);
+                // the body is tokenized (and chunked) as it streams in, never held as one String
+                try (Reader in = ingestion.openBody(base, bookId)) {
+                    body = BodyAnalyzer.analyze(in, analyzer, writeSnippets);
+                }
+                meta = ingestion.fetchMetaOrNull(base, bookId);
+                usedBase = base;
+                break;
+            } catch (Exception ex) {
+                lastErr = ex;
             }
+        }
 
+        if (usedBase == null) {
             return Map.of(
                     "book_id", bookId,
-                    "status", "ok",
-                    "ingestion", usedBase,
-                    "terms", tf.size()
+                    "status", "error",
+                    "message", "cannot fetch document from any source",
+                    "sources", bases,
+                    "lastError", lastErr == null ? "" : lastErr.getMessage()
             );
-
-        } finally {
-            try { lock.unlock(); } catch (Exception ignored) {}
         }
+
+        Map<String, Object> metaObj = parseMeta(meta);
+        Map<String, Object> doc = parseHeader(header, metaObj);
+        Map<String, int[]> termPositions = body.termPositions();
+        Map<String, Integer> tf = new HashMap<>();
+        for (Map.Entry<String, int[]> e : termPositions.entrySet()) tf.put(e.getKey(), e.getValue().length);
+        int length = length(tf);
+        doc.put("length", length);
+
+        return new Fetched(bookId, usedBase, doc, termPositions, tf, length, body.chunks(), body.chunkStarts());
     }
 
-    public Map<String, Object> rebuild(String ingestionBaseUrl) throws Exception {
-        if (ingestionBaseUrl == null || ingestionBaseUrl.isBlank()) {
-            return Map.of("status", "error", "message", "missing ingestion base url");
-        }
+    /**
+     * Writes the books, replacing their previous versions. Only what changed is removed: posting and
+     * filter bitmap entries of old terms/keys the new version lacks, their positions, and surplus chunks.
+     * Docs are written before postings, so search never sees a posting without its doc.
+     */
+    private void write(Collection<Fetched> books) {
+        if (books.isEmpty()) return;
+
+        Set<Integer> ids = new HashSet<>();
+        for (Fetched b : books) ids.add(b.bookId());
+        Map<Integer, Map<String, Integer>> oldTfs = docTerms.getAll(ids);
+        Map<Integer, Map<String, Object>> oldDocs = docs.getAll(ids);
+        Map<Integer, int[]> oldStarts = chunkStarts.getAll(ids);
+
+        Map<Integer, Map<String, Object>> newDocs = new HashMap<>();
+        Map<Integer, byte[]> newFacets = new HashMap<>();
+        Map<Integer, Map<String, Integer>> newTfs = new HashMap<>();
+        Map<String, byte[]> newPositions = new HashMap<>();
+        Map<String, byte[]> newChunks = new HashMap<>();
+        Map<Integer, int[]> newStarts = new HashMap<>();
+
+        Map<String, List<Integer>> postingAdds = new HashMap<>();
+        Map<String, List<Integer>> postingRemoves = new HashMap<>();
+        Map<String, List<Integer>> filterAdds = new HashMap<>();
+        Map<String, List<Integer>> filterRemoves = new HashMap<>();
+        Map<String, Integer> dfDelta = new HashMap<>();
+        Map<String, Integer> maxTf = new HashMap<>();
+        Set<String> deadPositions = new HashSet<>();
+        Set<String> deadChunks = new HashSet<>();
+        Set<Integer> deadStarts = new HashSet<>();
+        long docDelta = 0;
+        long lengthDelta = 0;
+
+        for (Fetched b : books) {
+            int id = b.bookId();
+            Map<String, Integer> oldTf = oldTfs.get(id);
+            Set<String> oldTerms = (oldTf == null) ? Set.of() : oldTf.keySet();
+            Set<String> terms = b.tf().keySet();
+
+            newDocs.put(id, b.doc());
+            newFacets.put(id, FacetCodec.encode(b.doc()));
+            newTfs.put(id, b.tf());
+
+            // re-adding an id a posting list already has is a no-op, so every term is sent
+            for (String term : terms) {
+                postingAdds.computeIfAbsent(term, k -> new ArrayList<>()).add(id);
+                if (!oldTerms.contains(term)) dfDelta.merge(term, 1, Integer::sum);
+            }
+            for (String term : oldTerms) {
+                if (terms.contains(term)) continue;
+                postingRemoves.computeIfAbsent(term, k -> new ArrayList<>()).add(id);
+                dfDelta.merge(term, -1, Integer::sum);
+            }
+            b.tf().forEach((term, tf) -> maxTf.merge(term, tf, Math::max));
 
-        long t0 = System.nanoTime();
+            if (oldTf == null) docDelta++;
+            lengthDelta += b.length() - ((oldTf == null) ? 0 : length(oldTf));
 
-        List<Integer> ids = ingestion.listBooks(ingestionBaseUrl);
-        int ok = 0;
-        List<Integer> failed = new ArrayList<>();
+            Set<String> keys = HazelcastInvertedIndexWriter.filterKeys(b.doc());
+            Set<String> oldKeys = HazelcastInvertedIndexWriter.filterKeys(oldDocs.get(id));
+            for (String key : keys) filterAdds.computeIfAbsent(key, k -> new ArrayList<>()).add(id);
+            for (String key : oldKeys) {
+                if (!keys.contains(key)) filterRemoves.computeIfAbsent(key, k -> new ArrayList<>()).add(id);
+            }
 
-        for (int id : ids) {
-            try {
-                Map<String, Object> out = update(id, ingestionBaseUrl);
-                if ("ok".equalsIgnoreCase(String.valueOf(out.get("status")))) ok++;
-                else failed.add(id);
-            } catch (Exception ex) {
-                failed.add(id);
+            if (writePositions) {
+                for (Map.Entry<String, int[]> e : b.termPositions().entrySet()) {
+                    newPositions.put(HazelcastInvertedIndexWriter.positionsKey(e.getKey(), id),
+                            PostingCodec.encode(e.getValue()));
+                }
+            }
+            for (String term : oldTerms) {
+                if (!writePositions || !terms.contains(term)) {
+                    deadPositions.add(HazelcastInvertedIndexWriter.positionsKey(term, id));
+                }
+            }
+
+            int chunkCount = 0;
+            if (writeSnippets) {
+                chunkCount = b.chunks().size();
+                for (int c = 0; c < chunkCount; c++) newChunks.put(BodyChunks.key(id, c), b.chunks().get(c));
+                newStarts.put(id, b.chunkStarts());
+            } else if (oldStarts.containsKey(id)) {
+                deadStarts.add(id);
             }
+            int[] old = oldStarts.get(id);
+            for (int c = chunkCount; old != null && c < old.length; c++) deadChunks.add(BodyChunks.key(id, c));
         }
 
-        long ms = (System.nanoTime() - t0) / 1_000_000L;
-
-        Map<String, Object> res = new LinkedHashMap<>();
-        res.put("status", "ok");
-        res.put("ingestion", ingestionBaseUrl);
-        res.put("total", ids.size());
-        res.put("indexed", ok);
-        res.put("failed", failed.size());
-        res.put("failedIds", failed);
-        res.put("time_ms", ms);
-        return res;
+        docs.putAll(newDocs);
+        docFacets.putAll(newFacets);
+        docTerms.putAll(newTfs);
+        if (!newPositions.isEmpty()) positions.putAll(newPositions);
+        if (!deadPositions.isEmpty()) positions.executeOnKeys(deadPositions, new DeleteEntryProcessor<>());
+        if (!newChunks.isEmpty()) chunks.putAll(newChunks);
+        if (!newStarts.isEmpty()) chunkStarts.putAll(newStarts);
+        if (!deadChunks.isEmpty()) chunks.executeOnKeys(deadChunks, new DeleteEntryProcessor<>());
+        if (!deadStarts.isEmpty()) chunkStarts.executeOnKeys(deadStarts, new DeleteEntryProcessor<>());
+
+        HazelcastInvertedIndexWriter.updatePostings(hz, sortedIds(postingAdds), sortedIds(postingRemoves));
+        HazelcastInvertedIndexWriter.updateFilterBitmaps(hz, sortedIds(filterAdds), sortedIds(filterRemoves));
+
+        dfDelta.values().removeIf(d -> d == 0);
+        HazelcastInvertedIndexWriter.adjustDf(hz, dfDelta);
+        HazelcastInvertedIndexWriter.raiseMaxTf(hz, maxTf);
+        if (docDelta != 0) docCount.addAndGet(docDelta);
+        if (lengthDelta != 0) totalLength.addAndGet(lengthDelta);
     }
 
-    private void removeIfExists(int bookId) {
-        Map<String, Integer> oldTf = docTerms.get(bookId);
-        if (oldTf != null) {
-            for (String term : oldTf.keySet()) {
-                invertedIndex.remove(term, bookId);
-            }
+    private static Map<String, int[]> sortedIds(Map<String, List<Integer>> ids) {
+        Map<String, int[]> out = new HashMap<>(ids.size() * 2);
+        for (Map.Entry<String, List<Integer>> e : ids.entrySet()) {
+            out.put(e.getKey(), PostingCodec.sortedUnique(e.getValue().stream().mapToInt(Integer::intValue).toArray()));
         }
-        docTerms.remove(bookId);
-        docs.remove(bookId);
+        return out;
+    }
+
+    private static int length(Map<String, Integer> tf) {
+        int n = 0;
+        for (int c : tf.values()) n += c;
+        return n;
     }
 
     private Map<String, Object> parseHeader(String header, Map<String, Object> metaObj) {
@@ -190,22 +417,15 @@ public class IndexingService {
         }
     }
 
-    private Map<String, Integer> termFreq(String body) {
-        Map<String, Integer> tf = new HashMap<>();
-        if (body == null) return tf;
-        Matcher m = token.matcher(body.toLowerCase());
-        while (m.find()) {
-            String t = m.group();
-            tf.put(t, tf.getOrDefault(t, 0) + 1);
-        }
-        return tf;
-    }
-
     public Map<String, Object> stats() {
-        return Map.of(
-                "docs", docs.size(),
-                "terms", invertedIndex.keySet().size()
-        );
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("docs", docs.size());
+        out.put("terms", termDf.size());
+        out.put("analyzer", analyzer.spec());
+        out.put("batchDocs", batchDocs);
+        out.put("batches", batches.get());
+        out.put("batchedDocs", batchedDocs.get());
+        return out;
     }
 
     private static List<String> normalizeBases(List<String> in) {
@@ -0,0 +1,351 @@
+package es.ulpgc.bd.indexing.service;
+
+import com.hazelcast.cluster.Member;
+import com.hazelcast.cluster.MembershipEvent;
+import com.hazelcast.cluster.MembershipListener;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.map.IMap;
+import es.ulpgc.bd.indexing.BitmapUpdateProcessor;
+import es.ulpgc.bd.indexing.client.IngestionClient;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Background /index/rebuild jobs: every book listed by an ingestion source is reindexed by a bounded
+ * pool of workers, each taking the next window of batchDocs books and indexing it with updateBatch.
+ *
+ * Job state lives in Hazelcast so any node can report it and a job survives its node: "rebuild-jobs"
+ * holds the settings and status, "rebuild-progress" the RoaringBitmaps of all, done and failed book ids
+ * ("<jobId>:all", ":done", ":failed"), updated after every window. Only indexed books go to done; a book
+ * that fails is kept in failed until a later attempt indexes it. A job makes up to MAX_PASSES passes, each
+ * over the books not done when it starts, so failed books are retried by the next pass. A running job
+ * whose owner left the cluster is claimed by the first node to notice (on member removal or at startup)
+ * and resumed from its current pass with the books not done yet, failed ones included.
+ *
+ * Fetches from each ingestion source are paced to at most ratePerSource books per second on this node.
+ */
+public class RebuildJobs {
+
+    private static final String MAP_JOBS = "rebuild-jobs";
+    private static final String MAP_PROGRESS = "rebuild-progress";
+
+    // failed ids listed in a job report
+    private static final int MAX_FAILED_IDS = 100;
+
+    // attempts per book: the first pass plus retries of the books still failing
+    private static final int MAX_PASSES = 3;
+
+    private final HazelcastInstance hz;
+    private final IndexingService indexing;
+    private final IngestionClient ingestion = new IngestionClient();
+
+    private final IMap<String, Map<String, Object>> jobs;
+    private final IMap<String, byte[]> progress;
+
+    private final int defaultParallelism;
+    private final int maxParallelism;
+    private final double defaultRatePerSource;
+
+    // pacing per ingestion base url, shared by all jobs running here
+    private final Map<String, Pacer> pacers = new ConcurrentHashMap<>();
+
+    /**
+     * @param parallelism    default number of workers per job
+     * @param maxParallelism workers a job may ask for at most; larger requests are clamped to it
+     * @param ratePerSource  default books per second fetched from one source, 0 for no limit
+     */
+    public RebuildJobs(HazelcastInstance hz, IndexingService indexing, int parallelism, int maxParallelism,
+                       double ratePerSource) {
+        this.hz = hz;
+        this.indexing = indexing;
+        this.jobs = hz.getMap(MAP_JOBS);
+        this.progress = hz.getMap(MAP_PROGRESS);
+        this.maxParallelism = Math.max(1, maxParallelism);
+        this.defaultParallelism = clampParallelism(parallelism);
+        this.defaultRatePerSource = Math.max(0, ratePerSource);
+
+        hz.getCluster().addMembershipListener(new MembershipListener() {
+            @Override
+            public void memberAdded(MembershipEvent event) {}
+
+            @Override
+            public void memberRemoved(MembershipEvent event) {
+                resumeOrphaned();
+            }
+        });
+    }
+
+    /**
+     * Lists the source's books and starts reindexing them in the background.
+     *
+     * @param parallelism   workers (clamped to 1..maxParallelism), null for the default
+     * @param ratePerSource books per second, null for the default
+     * @return the job report (see report)
+     */
+    public Map<String, Object> start(String ingestionBase, Integer parallelism, Double ratePerSource) throws Exception {
+        List<Integer> ids = ingestion.listBooks(ingestionBase);
+
+        String jobId = UUID.randomUUID().toString();
+        RoaringBitmap all = new RoaringBitmap();
+        for (int id : ids) all.add(id);
+        progress.set(key(jobId, "all"), BitmapUpdateProcessor.toBytes(all));
+
+        long now = System.currentTimeMillis();
+        Map<String, Object> job = new LinkedHashMap<>();
+        job.put("job_id", jobId);
+        job.put("status", "running");
+        job.put("ingestion", ingestionBase);
+        job.put("parallelism", (parallelism != null) ? clampParallelism(parallelism) : defaultParallelism);
+        job.put("rate_per_source", (ratePerSource != null) ? Math.max(0, ratePerSource) : defaultRatePerSource);
+        job.put("total", all.getCardinality());
+        job.put("pass", 1);
+        job.put("created_ms", now);
+        claim(job, 0);
+        jobs.set(jobId, job);
+
+        launch(jobId);
+        return report(jobId);
+    }
+
+    /**
+     * Status, counts, throughput of the current run (books/s since it started or resumed) and ETA;
+     * null if the job is unknown.
+     */
+    public Map<String, Object> report(String jobId) {
+        Map<String, Object> job = jobs.get(jobId);
+        if (job == null) return null;
+
+        RoaringBitmap done = bitmap(key(jobId, "done"));
+        RoaringBitmap failed = bitmap(key(jobId, "failed"));
+        int total = ((Number) job.get("total")).intValue();
+        int finished = done.getCardinality();
+
+        Map<String, Object> out = new LinkedHashMap<>(job);
+        out.put("max_passes", MAX_PASSES);
+        out.put("done", finished);
+        out.put("indexed", finished);
+        out.put("failed", failed.getCardinality());
+        List<Integer> failedIds = new ArrayList<>();
+        for (int id : failed) {
+            if (failedIds.size() >= MAX_FAILED_IDS) break;
+            failedIds.add(id);
+        }
+        out.put("failedIds", failedIds);
+
+        long end = (job.get("finished_ms") instanceof Number f) ? f.longValue() : System.currentTimeMillis();
+        double seconds = Math.max(0.001, (end - ((Number) job.get("run_started_ms")).longValue()) / 1000.0);
+        int doneThisRun = finished - ((Number) job.get("run_done_at_start")).intValue();
+        double rate = doneThisRun / seconds;
+        out.put("elapsed_s", seconds);
+        out.put("books_per_s", rate);
+        if ("running".equals(job.get("status"))) {
+            out.put("eta_s", (rate > 0) ? (total - finished - failed.getCardinality()) / rate : null);
+        }
+        return out;
+    }
+
+    /** Claims and resumes every running job whose owner is no longer a cluster member. */
+    public void resumeOrphaned() {
+        Set<String> members = new HashSet<>();
+        for (Member m : hz.getCluster().getMembers()) members.add(m.getUuid().toString());
+
+        for (String jobId : jobs.keySet()) {
+            Map<String, Object> job = jobs.get(jobId);
+            if (job == null || !"running".equals(job.get("status")) || members.contains(String.valueOf(job.get("owner")))) {
+                continue;
+            }
+
+            // several nodes may see the same member leave: the one that takes the lock and still finds it orphaned wins
+            if (!jobs.tryLock(jobId)) continue;
+            try {
+                job = jobs.get(jobId);
+                if (job == null || !"running".equals(job.get("status")) || members.contains(String.valueOf(job.get("owner")))) {
+                    continue;
+                }
+                claim(job, bitmap(key(jobId, "done")).getCardinality());
+                jobs.set(jobId, job);
+            } finally {
+                jobs.unlock(jobId);
+            }
+
+            System.out.println("[REBUILD] resuming job " + jobId);
+            launch(jobId);
+        }
+    }
+
+    private void claim(Map<String, Object> job, int doneAtStart) {
+        job.put("owner", hz.getCluster().getLocalMember().getUuid().toString());
+        job.put("run_started_ms", System.currentTimeMillis());
+        job.put("run_done_at_start", doneAtStart);
+    }
+
+    private void launch(String jobId) {
+        Thread t = new Thread(() -> run(jobId), "rebuild-" + jobId);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void run(String jobId) {
+        Map<String, Object> job = jobs.get(jobId);
+        if (job == null) return;
+
+        String base = String.valueOf(job.get("ingestion"));
+        int parallelism = ((Number) job.get("parallelism")).intValue();
+        double rate = ((Number) job.get("rate_per_source")).doubleValue();
+        Pacer pacer = (rate > 0) ? pacers.computeIfAbsent(base, b -> new Pacer(rate)) : null;
+
+        // a pass covers the books not done when it starts; the next one retries those that failed in it
+        int pass = ((Number) job.getOrDefault("pass", 1)).intValue();
+        while (true) {
+            RoaringBitmap pending = bitmap(key(jobId, "all"));
+            pending.andNot(bitmap(key(jobId, "done")));
+            if (pending.isEmpty()) break;
+            if (!runPass(jobId, base, parallelism, pacer, pending.toArray())) return;
+            if (pass >= MAX_PASSES) break;
+
+            pass++;
+            Map<String, Object> current = jobs.get(jobId);
+            if (current == null) return;
+            current.put("pass", pass);
+            jobs.set(jobId, current);
+        }
+
+        Map<String, Object> finished = jobs.get(jobId);
+        if (finished != null) {
+            finished.put("status", "done");
+            finished.put("finished_ms", System.currentTimeMillis());
+            jobs.set(jobId, finished);
+        }
+        System.out.println("[REBUILD] job " + jobId + " done");
+    }
+
+    // indexes ids in windows on a pool of parallelism workers; false if interrupted or a worker failed
+    // (the job is then marked failed with the worker's error)
+    private boolean runPass(String jobId, String base, int parallelism, Pacer pacer, int[] ids) {
+        int window = indexing.batchDocs();
+
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "rebuild-worker-" + jobId);
+            t.setDaemon(true);
+            return t;
+        });
+        List<Future<?>> running = new ArrayList<>();
+        for (int w = 0; w < parallelism; w++) {
+            running.add(workers.submit(() -> {
+                for (int from = next.getAndAdd(window); from < ids.length; from = next.getAndAdd(window)) {
+                    int[] chunk = Arrays.copyOfRange(ids, from, Math.min(ids.length, from + window));
+                    if (pacer != null) pacer.acquire(chunk.length);
+                    indexWindow(jobId, base, chunk);
+                }
+            }));
+        }
+
+        workers.shutdown();
+        Throwable error = null;
+        try {
+            while (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+                // keep waiting: a rebuild takes as long as it takes
+            }
+            // a worker that threw (e.g. its checkpoint failed) stopped early: the pass must not look complete
+            for (Future<?> f : running) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    if (error == null) error = e.getCause();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        if (error == null) return true;
+
+        System.out.println("[REBUILD] job " + jobId + " failed: " + error);
+        Map<String, Object> job = jobs.get(jobId);
+        if (job != null) {
+            job.put("status", "failed");
+            job.put("error", String.valueOf(error));
+            job.put("finished_ms", System.currentTimeMillis());
+            jobs.set(jobId, job);
+        }
+        return false;
+    }
+
+    // indexes one window and checkpoints it: indexed ids go to done (and leave failed), the others to failed
+    private void indexWindow(String jobId, String base, int[] chunk) {
+        List<IndexingService.Job> batch = new ArrayList<>();
+        for (int id : chunk) batch.add(new IndexingService.Job(id, List.of(base)));
+
+        List<Integer> failed = new ArrayList<>();
+        try {
+            List<Map<String, Object>> results = indexing.updateBatch(batch);
+            for (int i = 0; i < chunk.length; i++) {
+                if (!"ok".equalsIgnoreCase(String.valueOf(results.get(i).get("status")))) failed.add(chunk[i]);
+            }
+        } catch (Exception ex) {
+            System.out.println("[REBUILD] window failed: " + ex.getMessage());
+            for (int id : chunk) failed.add(id);
+        }
+
+        Set<Integer> failedSet = new HashSet<>(failed);
+        int[] indexed = Arrays.stream(chunk).filter(id -> !failedSet.contains(id)).sorted().toArray();
+        Map<String, int[]> adds = new HashMap<>();
+        Map<String, int[]> removes = new HashMap<>();
+        if (indexed.length > 0) {
+            adds.put(key(jobId, "done"), indexed);
+            removes.put(key(jobId, "failed"), indexed);
+        }
+        if (!failed.isEmpty()) adds.put(key(jobId, "failed"), failed.stream().mapToInt(Integer::intValue).sorted().toArray());
+
+        Set<String> keys = new HashSet<>(adds.keySet());
+        keys.addAll(removes.keySet());
+        progress.executeOnKeys(keys, new BitmapUpdateProcessor(adds, removes));
+    }
+
+    private int clampParallelism(int parallelism) {
+        return Math.max(1, Math.min(maxParallelism, parallelism));
+    }
+
+    private RoaringBitmap bitmap(String key) {
+        return BitmapUpdateProcessor.fromBytes(progress.get(key));
+    }
+
+    private static String key(String jobId, String part) {
+        return jobId + ":" + part;
+    }
+
+    // spaces permits 1/perSecond apart; callers sleep until their reserved slot
+    private static final class Pacer {
+        private final double intervalNanos;
+        private long nextFree = System.nanoTime();
+
+        Pacer(double perSecond) {
+            this.intervalNanos = 1e9 / perSecond;
+        }
+
+        void acquire(int permits) {
+            long wait;
+            synchronized (this) {
+                long now = System.nanoTime();
+                long start = Math.max(now, nextFree);
+                nextFree = start + (long) (permits * intervalNanos);
+                wait = start - now;
+            }
+            if (wait <= 0) return;
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package es.ulpgc.bd.indexing.util;
+
+import es.ulpgc.bd.analysis.Analyzer;
+import es.ulpgc.bd.analysis.TermPositions;
+import es.ulpgc.bd.format.BodyChunks;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Single pass over a book body read as a stream: token positions of every term (the index's Analyzer
+ * into TermPositions) and, optionally, the snippet chunks of BodyChunks, without ever holding the whole body.
+ *
+ * Chunks are cut exactly where BodyChunks.split cuts them and deflated as soon as they are complete:
+ * the reader keeps a copy of the text read since the current chunk began, so at most one chunk plus
+ * one read buffer of raw text is held.
+ */
+public final class BodyAnalyzer {
+
+    /** Ascending token positions per term (their lengths are the term frequencies), deflated chunks and chunk starts. */
+    public record Result(Map<String, int[]> termPositions, List<byte[]> chunks, int[] chunkStarts) {}
+
+    private BodyAnalyzer() {}
+
+    /** Reads the body to its end; the caller closes the reader. */
+    public static Result analyze(Reader body, Analyzer analyzer, boolean withChunks) throws IOException {
+        TermPositions terms = new TermPositions();
+        if (!withChunks) {
+            analyzer.analyze(body, terms);
+            return new Result(terms.positions(), List.of(), new int[0]);
+        }
+
+        Chunker chunker = new Chunker(body);
+        analyzer.analyze(chunker, (chars, length, position, start, end) -> {
+            chunker.token(position, start, end);
+            terms.term(chars, length, position, start, end);
+        });
+        return chunker.finish(terms);
+    }
+
+    // tees everything read into the current chunk's text
+    private static final class Chunker extends FilterReader {
+        private final StringBuilder text = new StringBuilder(BodyChunks.CHUNK_CHARS * 3);
+        private final List<byte[]> chunks = new ArrayList<>();
+        private int[] starts = new int[8];
+        private long chunkFrom;
+        private long read;
+
+        Chunker(Reader in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = super.read();
+            if (c >= 0) {
+                text.append((char) c);
+                read++;
+            }
+            return c;
+        }
+
+        @Override
+        public int read(char[] buf, int off, int len) throws IOException {
+            int n = super.read(buf, off, len);
+            if (n > 0) {
+                text.append(buf, off, n);
+                read += n;
+            }
+            return n;
+        }
+
+        // same rule as BodyChunks.split: a token ending past the limit opens the next chunk, unless it is the chunk's first
+        void token(int position, long start, long end) {
+            if (end - chunkFrom > BodyChunks.CHUNK_CHARS && start > chunkFrom) {
+                int cut = (int) (start - chunkFrom);
+                chunks.add(BodyChunks.deflate(text.substring(0, cut)));
+                if (chunks.size() == starts.length) starts = Arrays.copyOf(starts, starts.length * 2);
+                starts[chunks.size()] = position;
+                text.delete(0, cut);
+                chunkFrom = start;
+            }
+        }
+
+        Result finish(TermPositions terms) {
+            if (read == 0) return new Result(terms.positions(), List.of(), new int[0]);
+            chunks.add(BodyChunks.deflate(text.toString()));
+            return new Result(terms.positions(), chunks, Arrays.copyOf(starts, chunks.size()));
+        }
+    }
+}
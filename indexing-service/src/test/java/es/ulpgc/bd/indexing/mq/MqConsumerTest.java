@@ -0,0 +1,145 @@
+package es.ulpgc.bd.indexing.mq;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.config.JoinConfig;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+import es.ulpgc.bd.indexing.service.IndexingService;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import java.lang.reflect.Proxy;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Commit/rollback decisions of the consume loop, against a scripted JMS session and a stub index. */
+class MqConsumerTest {
+
+    private static HazelcastInstance hz;
+
+    @BeforeAll
+    static void start() {
+        Config cfg = new Config();
+        cfg.setClusterName("test-" + UUID.randomUUID());
+        cfg.setProperty("hazelcast.phone.home.enabled", "false");
+        cfg.setProperty("hazelcast.logging.type", "none");
+        JoinConfig join = cfg.getNetworkConfig().getJoin();
+        join.getMulticastConfig().setEnabled(false);
+        join.getTcpIpConfig().setEnabled(false);
+        join.getAutoDetectionConfig().setEnabled(false);
+        hz = Hazelcast.newHazelcastInstance(cfg);
+    }
+
+    @AfterAll
+    static void stop() {
+        if (hz != null) hz.shutdown();
+    }
+
+    @Test
+    void windowIsIndexedOnceAndCommitted() {
+        Run run = new Run(2, Set.of());
+        run.consume(message(1, false), message(2, false));
+        assertEquals(List.of(List.of(1, 2)), run.indexed);
+        assertEquals(List.of("commit"), run.session);
+    }
+
+    @Test
+    void failedRetryOfARedeliveredEventIsRolledBackNotCommitted() {
+        Run run = new Run(2, Set.of(7));
+        run.consume(message(7, true));
+        assertEquals(List.of(List.of(7)), run.indexed);
+        assertEquals(List.of("rollback"), run.session);
+    }
+
+    @Test
+    void redeliveredEventIsCommittedWithTheOpenWindow() {
+        Run run = new Run(4, Set.of());
+        run.consume(message(1, false), message(7, true));
+        assertEquals(List.of(List.of(1), List.of(7)), run.indexed);
+        assertEquals(List.of("commit"), run.session);
+    }
+
+    @Test
+    void failedRetryRollsBackTheOpenWindowToo() {
+        Run run = new Run(4, Set.of(7));
+        run.consume(message(1, false), message(7, true));
+        assertEquals(List.of(List.of(1), List.of(7)), run.indexed);
+        assertEquals(List.of("rollback"), run.session);
+    }
+
+    @Test
+    void badRedeliveredEventIsJustAcknowledged() {
+        Run run = new Run(4, Set.of());
+        run.consume(text("not json", true));
+        assertTrue(run.indexed.isEmpty());
+        assertEquals(List.of("commit"), run.session);
+    }
+
+    // one consumer over a scripted queue; the session records commits and rollbacks
+    private static final class Run {
+        final List<String> session = new ArrayList<>();
+        final List<List<Integer>> indexed = new ArrayList<>();
+        private final MqConsumer consumer;
+
+        Run(int batchDocs, Set<Integer> failing) {
+            IndexingService indexing = new IndexingService(hz) {
+                @Override
+                public List<Map<String, Object>> updateBatch(List<Job> jobs) {
+                    indexed.add(jobs.stream().map(Job::bookId).toList());
+                    List<Map<String, Object>> out = new ArrayList<>();
+                    for (Job job : jobs) {
+                        out.add(Map.of("book_id", job.bookId(), "status", failing.contains(job.bookId()) ? "error" : "ok"));
+                    }
+                    return out;
+                }
+            };
+            consumer = new MqConsumer("vm://unused", "documents", null, indexing, batchDocs, 60_000);
+        }
+
+        void consume(Message... messages) {
+            Deque<Message> queue = new ArrayDeque<>(List.of(messages));
+            Session s = proxy(Session.class, (method, args) -> {
+                if (method.equals("commit") || method.equals("rollback")) session.add(method);
+                return null;
+            });
+            // after the script the next receive ends the loop
+            MessageConsumer c = proxy(MessageConsumer.class, (method, args) -> {
+                if (!method.equals("receive")) return null;
+                if (queue.isEmpty()) throw new EndOfScript();
+                return queue.poll();
+            });
+            assertThrows(EndOfScript.class, () -> consumer.consume(s, c));
+        }
+    }
+
+    private static final class EndOfScript extends RuntimeException {}
+
+    private static Message message(int bookId, boolean redelivered) {
+        return text("{\"book_id\":" + bookId + "}", redelivered);
+    }
+
+    private static Message text(String payload, boolean redelivered) {
+        return proxy(TextMessage.class, (method, args) -> switch (method) {
+            case "getText" -> payload;
+            case "getJMSRedelivered" -> redelivered;
+            case "toString" -> payload;
+            default -> null;
+        });
+    }
+
+    private interface Handler {
+        Object handle(String method, Object[] args);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (p, method, args) -> handler.handle(method.getName(), args));
+    }
+}
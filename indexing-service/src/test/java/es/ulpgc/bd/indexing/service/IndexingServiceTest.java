@@ -0,0 +1,63 @@
+package es.ulpgc.bd.indexing.service;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.config.JoinConfig;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+import es.ulpgc.bd.indexing.HazelcastInvertedIndexWriter;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndexingServiceTest {
+
+    private static HazelcastInstance hz;
+
+    @BeforeAll
+    static void start() {
+        Config cfg = new Config();
+        cfg.setClusterName("test-" + UUID.randomUUID());
+        cfg.setProperty("hazelcast.phone.home.enabled", "false");
+        cfg.setProperty("hazelcast.logging.type", "none");
+        JoinConfig join = cfg.getNetworkConfig().getJoin();
+        join.getMulticastConfig().setEnabled(false);
+        join.getTcpIpConfig().setEnabled(false);
+        join.getAutoDetectionConfig().setEnabled(false);
+        hz = Hazelcast.newHazelcastInstance(cfg);
+    }
+
+    @AfterAll
+    static void stop() {
+        if (hz != null) hz.shutdown();
+    }
+
+    @Test
+    void batchThatWritesNoBookKeepsTheGeneration() throws Exception {
+        IndexingService indexing = new IndexingService(hz);
+        long before = hz.getCPSubsystem().getAtomicLong("index-generation").get();
+
+        // no sources: every fetch fails before anything is written
+        List<Map<String, Object>> out = indexing.updateBatch(List.of(
+                new IndexingService.Job(1, List.of()),
+                new IndexingService.Job(2, List.of())));
+
+        assertEquals(List.of("error", "error"), out.stream().map(r -> r.get("status")).toList());
+        assertEquals(before, hz.getCPSubsystem().getAtomicLong("index-generation").get());
+        assertTrue(hz.getMap(HazelcastInvertedIndexWriter.MAP_INDEX_UPDATES).isEmpty());
+    }
+
+    @Test
+    void emptyBatchKeepsTheGeneration() throws Exception {
+        IndexingService indexing = new IndexingService(hz);
+        long before = hz.getCPSubsystem().getAtomicLong("index-generation").get();
+
+        assertTrue(indexing.updateBatch(List.of()).isEmpty());
+        assertEquals(before, hz.getCPSubsystem().getAtomicLong("index-generation").get());
+    }
+}
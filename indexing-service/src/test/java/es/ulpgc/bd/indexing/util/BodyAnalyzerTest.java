@@ -0,0 +1,144 @@
+package es.ulpgc.bd.indexing.util;
+
+import es.ulpgc.bd.analysis.Analyzer;
+import es.ulpgc.bd.format.BodyChunks;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** The streaming analyzer against the regex tokenizer (folded) and BodyChunks.split, the reference it must match. */
+class BodyAnalyzerTest {
+
+    private static final Pattern TOKEN = Pattern.compile("[\\p{L}\\p{N}]+");
+
+    // ascii, accented and other-script letters, numbers, a supplementary letter, a lone surrogate and separators
+    private static final String[] PIECES = {"whale", "Sea", "CAPTAIN", "ahab's", "1851", "Ñandú", "İstanbul", "Ærø",
+            "東京", "٣٤", "𝔘nicode", "x\uD800y", "—", ", ", ".\n", " ", "  ", "\t"};
+
+    @Test
+    void matchesTheRegexTokenizerAndSplitOnRandomBodies() throws Exception {
+        Random random = new Random(7);
+        for (int round = 0; round < 20; round++) {
+            StringBuilder sb = new StringBuilder();
+            int pieces = random.nextInt(6000);
+            for (int i = 0; i < pieces; i++) {
+                sb.append(PIECES[random.nextInt(PIECES.length)]);
+                if (random.nextBoolean()) sb.append(' ');
+            }
+            assertMatchesReference(sb.toString(), random);
+        }
+    }
+
+    @Test
+    void longTokenAndEmptyBody() throws Exception {
+        Random random = new Random(1);
+        assertMatchesReference("call me " + "X".repeat(BodyChunks.CHUNK_CHARS * 2) + " ishmael", random);
+        assertMatchesReference("", random);
+        assertMatchesReference(" — ", random);
+    }
+
+    @Test
+    void withoutChunksOnlyCountsPositions() throws Exception {
+        BodyAnalyzer.Result result =
+                BodyAnalyzer.analyze(new StringReader("The whale, the WHALE and the sea"), Analyzer.DEFAULT, false);
+        assertArrayEquals(new int[]{0, 2, 5}, result.termPositions().get("the"));
+        assertArrayEquals(new int[]{1, 3}, result.termPositions().get("whale"));
+        assertArrayEquals(new int[]{6}, result.termPositions().get("sea"));
+        assertEquals(4, result.termPositions().size());
+        assertTrue(result.chunks().isEmpty());
+        assertEquals(0, result.chunkStarts().length);
+    }
+
+    @Test
+    void configuredChainCutsTheSameChunksAsSplit() throws Exception {
+        Analyzer english = Analyzer.fromSpec("english+stopwords+stem");
+        String body = "The whales and the ships of the captains. ".repeat(1500);
+        BodyAnalyzer.Result result = BodyAnalyzer.analyze(new ChoppyReader(body, new Random(2)), english, true);
+
+        assertNull(result.termPositions().get("the"));
+        int[] whale = result.termPositions().get("whale");
+        assertEquals(1500, whale.length);
+        assertEquals(9, whale[1]); // stopwords keep their positions
+
+        BodyChunks.Split split = BodyChunks.split(body, english);
+        assertTrue(split.texts().size() > 1);
+        assertArrayEquals(split.starts(), result.chunkStarts());
+        List<String> texts = new ArrayList<>();
+        for (byte[] chunk : result.chunks()) texts.add(inflate(chunk));
+        assertEquals(split.texts(), texts);
+    }
+
+    private static void assertMatchesReference(String body, Random random) throws Exception {
+        // reads of random small sizes, so surrogate pairs and tokens straddle reads
+        BodyAnalyzer.Result result = BodyAnalyzer.analyze(new ChoppyReader(body, random), Analyzer.DEFAULT, true);
+
+        Map<String, List<Integer>> expected = new HashMap<>();
+        Matcher m = TOKEN.matcher(body);
+        int position = 0;
+        while (m.find()) {
+            String term = Analyzer.fold(m.group());
+            expected.computeIfAbsent(term, k -> new ArrayList<>()).add(position++);
+        }
+        Map<String, List<Integer>> actual = new HashMap<>();
+        result.termPositions().forEach((term, positions) ->
+                actual.put(term, Arrays.stream(positions).boxed().toList()));
+        assertEquals(expected, actual);
+
+        BodyChunks.Split split = BodyChunks.split(body, Analyzer.DEFAULT);
+        assertArrayEquals(split.starts(), result.chunkStarts());
+        List<String> texts = new ArrayList<>();
+        for (byte[] chunk : result.chunks()) texts.add(inflate(chunk));
+        // deflate stores UTF-8, which turns the lone surrogate into '?' on both paths
+        List<String> reference = new ArrayList<>();
+        for (String text : split.texts()) {
+            reference.add(new String(text.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8));
+        }
+        assertEquals(reference, texts);
+    }
+
+    private static final class ChoppyReader extends Reader {
+        private final String text;
+        private final Random random;
+        private int pos;
+
+        ChoppyReader(String text, Random random) {
+            this.text = text;
+            this.random = random;
+        }
+
+        @Override
+        public int read(char[] buf, int off, int len) {
+            if (pos == text.length()) return -1;
+            int n = Math.min(Math.min(len, 1 + random.nextInt(17)), text.length() - pos);
+            text.getChars(pos, pos + n, buf, off);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {}
+    }
+
+    private static String inflate(byte[] data) throws Exception {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            while (!inflater.finished()) out.write(buf, 0, inflater.inflate(buf));
+            return out.toString(StandardCharsets.UTF_8);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -4,12 +4,12 @@ import com.hazelcast.config.Config;
 import com.hazelcast.config.InterfacesConfig;
 import com.hazelcast.config.JoinConfig;
 import com.hazelcast.config.MapConfig;
-import com.hazelcast.config.MultiMapConfig;
 import com.hazelcast.config.MulticastConfig;
 import com.hazelcast.config.NetworkConfig;
 import com.hazelcast.config.TcpIpConfig;
 import com.hazelcast.core.Hazelcast;
 import com.hazelcast.core.HazelcastInstance;
+import es.ulpgc.bd.search.service.PostingCache;
 
 import java.util.Arrays;
 import java.util.List;
@@ -22,9 +22,25 @@ public class HazelcastBoot {
         cfg.setClusterName(clusterName);
 
         int backupCount = 2;
-        cfg.addMapConfig(new MapConfig("docs").setBackupCount(backupCount));
-        cfg.addMapConfig(new MapConfig("docTerms").setBackupCount(backupCount));
-        cfg.addMultiMapConfig(new MultiMapConfig("inverted-index").setBackupCount(backupCount));
+        cfg.addMapConfig(SearchServiceApp.withNearCache(new MapConfig("docs").setBackupCount(backupCount), 20000));
+        cfg.addMapConfig(SearchServiceApp.withNearCache(new MapConfig("docTerms").setBackupCount(backupCount), 20000));
+        cfg.setProperty("hazelcast.map.invalidation.batchfrequency.seconds", "1");
+        cfg.addMapConfig(new MapConfig("term-df").setBackupCount(backupCount));
+        cfg.addMapConfig(new MapConfig("term-maxtf").setBackupCount(backupCount));
+        cfg.addMapConfig(new MapConfig("postings").setBackupCount(backupCount));
+        cfg.addMapConfig(new MapConfig("filter-bitmaps").setBackupCount(backupCount));
+        cfg.addMapConfig(new MapConfig("positions").setBackupCount(backupCount));
+        cfg.addMapConfig(new MapConfig("doc-facets").setBackupCount(backupCount));
+        cfg.addMapConfig(new MapConfig("doc-chunks").setBackupCount(backupCount));
+        cfg.addMapConfig(new MapConfig("doc-chunk-starts").setBackupCount(backupCount));
+        cfg.addMapConfig(new MapConfig(PostingCache.MAP_INDEX_UPDATES)
+                .setBackupCount(1)
+                .setTimeToLiveSeconds(PostingCache.INDEX_UPDATES_TTL_SECONDS));
+
+        // search members send scoring tasks to the data owners; every member must be able to load them
+        cfg.getUserCodeDeploymentConfig()
+                .setEnabled(true)
+                .setWhitelistedPrefixes("es.ulpgc.bd.");
 
         NetworkConfig net = cfg.getNetworkConfig();
         net.setPort(port);
@@ -3,7 +3,9 @@ package es.ulpgc.bd.search;
 import com.hazelcast.config.*;
 import com.hazelcast.core.Hazelcast;
 import com.hazelcast.core.HazelcastInstance;
+import es.ulpgc.bd.search.api.AdmissionControl;
 import es.ulpgc.bd.search.api.SearchHttpApi;
+import es.ulpgc.bd.search.service.PostingCache;
 import es.ulpgc.bd.search.service.SearchService;
 import io.javalin.Javalin;
 
@@ -25,16 +27,62 @@ public class SearchServiceApp {
         final int hzPort = Integer.parseInt(a.getOrDefault("hzPort", a.getOrDefault("hz.port", "5701")));
         final String hzInterface = first(a, "hzInterface", "hz.interface");
 
+        // distributed: score on the members owning the docs; local: pull everything to this node
+        final boolean distributedScoring = !"local".equalsIgnoreCase(a.getOrDefault("scoring", "distributed"));
+
+        // total result rows kept by the in-process query cache; 0 disables it
+        final long cacheRows = Long.parseLong(a.getOrDefault("cacheRows", "50000"));
+
+        // near-cache on docs/docTerms (entries per map, 0 disables) and how often owners flush invalidations
+        final int nearCacheEntries = Integer.parseInt(a.getOrDefault("nearCacheEntries", "20000"));
+        final String invalidationSeconds = a.getOrDefault("nearCacheInvalidationSeconds", "1");
+
+        // results of a new index generation are cached only once its near-cache invalidations had time to arrive
+        final long cacheSettleMs = Long.parseLong(a.getOrDefault("cacheSettleMs",
+                (nearCacheEntries > 0) ? String.valueOf((Long.parseLong(invalidationSeconds) + 1) * 1000) : "0"));
+
+        // local posting list cache (MB, 0 disables), negative cache of unknown terms and max staleness
+        final long postingCacheMb = Long.parseLong(a.getOrDefault("postingCacheMb", "64"));
+        final long negativeCacheEntries = Long.parseLong(a.getOrDefault("negativeCacheEntries", "100000"));
+        final long postingCacheTtl = Long.parseLong(a.getOrDefault("postingCacheTtlSeconds", "300"));
+
+        // local term dictionary (wildcards, /suggest): snapshot rebuild interval while terms change
+        final long dictRefreshMs = Long.parseLong(a.getOrDefault("dictRefreshMs", "2000"));
+
+        // default and maximum search time budget (0 = none); below nginx's 30s proxy_read_timeout
+        final long searchTimeoutMs = Long.parseLong(a.getOrDefault("searchTimeoutMs", "10000"));
+
+        // admission control on uncached searches: AIMD concurrency limit between admissionMin and admissionMax
+        // (0 disables), shrinking when requests exceed admissionTargetMs; up to admissionQueue requests wait
+        // admissionWaitMs for a slot before a 503
+        final int admissionMin = Integer.parseInt(a.getOrDefault("admissionMin", "2"));
+        final int admissionMax = Integer.parseInt(a.getOrDefault("admissionMax", "64"));
+        final int admissionQueue = Integer.parseInt(a.getOrDefault("admissionQueue", "64"));
+        final long admissionWaitMs = Long.parseLong(a.getOrDefault("admissionWaitMs", "200"));
+        final long admissionTargetMs = Long.parseLong(a.getOrDefault("admissionTargetMs", "500"));
+
         Config cfg = new Config();
         cfg.setClusterName(clusterName);
 
-        cfg.addMapConfig(new MapConfig("docs").setBackupCount(2));
-        cfg.addMapConfig(new MapConfig("docTerms").setBackupCount(2));
-
-        MultiMapConfig mm = new MultiMapConfig("inverted-index");
-        mm.setBackupCount(2);
-        mm.setValueCollectionType(MultiMapConfig.ValueCollectionType.SET);
-        cfg.addMultiMapConfig(mm);
+        cfg.addMapConfig(withNearCache(new MapConfig("docs").setBackupCount(2), nearCacheEntries));
+        cfg.addMapConfig(withNearCache(new MapConfig("docTerms").setBackupCount(2), nearCacheEntries));
+        cfg.setProperty("hazelcast.map.invalidation.batchfrequency.seconds", invalidationSeconds);
+        cfg.addMapConfig(new MapConfig("term-df").setBackupCount(2));
+        cfg.addMapConfig(new MapConfig("term-maxtf").setBackupCount(2));
+        cfg.addMapConfig(new MapConfig("postings").setBackupCount(2));
+        cfg.addMapConfig(new MapConfig("filter-bitmaps").setBackupCount(2));
+        cfg.addMapConfig(new MapConfig("positions").setBackupCount(2));
+        cfg.addMapConfig(new MapConfig("doc-facets").setBackupCount(2));
+        cfg.addMapConfig(new MapConfig("doc-chunks").setBackupCount(2));
+        cfg.addMapConfig(new MapConfig("doc-chunk-starts").setBackupCount(2));
+        cfg.addMapConfig(new MapConfig(PostingCache.MAP_INDEX_UPDATES)
+                .setBackupCount(1)
+                .setTimeToLiveSeconds(PostingCache.INDEX_UPDATES_TTL_SECONDS));
+
+        // search members send scoring tasks to the data owners; every member must be able to load them
+        cfg.getUserCodeDeploymentConfig()
+                .setEnabled(true)
+                .setWhitelistedPrefixes("es.ulpgc.bd.");
 
         NetworkConfig net = cfg.getNetworkConfig();
         net.setPort(hzPort);
@@ -69,10 +117,17 @@ public class SearchServiceApp {
 
         HazelcastInstance hz = Hazelcast.newHazelcastInstance(cfg);
 
-        SearchService service = new SearchService(hz, clusterName, hzMembers, port);
+        PostingCache postingCache = new PostingCache(
+                hz.getMap("postings"), postingCacheMb * 1024 * 1024, negativeCacheEntries, postingCacheTtl,
+                hz.getMap(PostingCache.MAP_INDEX_UPDATES));
+        SearchService service = new SearchService(
+                hz, clusterName, hzMembers, port, distributedScoring, cacheRows, cacheSettleMs, postingCache,
+                dictRefreshMs, searchTimeoutMs);
 
         Javalin app = Javalin.create().start(port);
-        new SearchHttpApi(service).register(app);
+        AdmissionControl admission = new AdmissionControl(
+                admissionMin, admissionMax, admissionQueue, admissionWaitMs, admissionTargetMs);
+        new SearchHttpApi(service, admission).register(app);
 
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             try { app.stop(); } catch (Exception ignored) {}
@@ -82,6 +137,20 @@ public class SearchServiceApp {
         System.out.println("Search listening on :" + port + " hzCluster=" + clusterName + " hzMembers=" + hzMembers);
     }
 
+    // only remote entries are near-cached; owners push invalidations when a book is (re)indexed
+    static MapConfig withNearCache(MapConfig map, int entries) {
+        if (entries <= 0) return map;
+        EvictionConfig eviction = new EvictionConfig()
+                .setEvictionPolicy(EvictionPolicy.LFU)
+                .setMaxSizePolicy(MaxSizePolicy.ENTRY_COUNT)
+                .setSize(entries);
+        return map.setNearCacheConfig(new NearCacheConfig()
+                .setInMemoryFormat(InMemoryFormat.OBJECT)
+                .setInvalidateOnChange(true)
+                .setCacheLocalEntries(false)
+                .setEvictionConfig(eviction));
+    }
+
     private static String first(Map<String, String> m, String... keys) {
         for (String k : keys) {
             String v = m.get(k);
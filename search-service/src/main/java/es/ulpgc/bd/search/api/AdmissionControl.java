@@ -0,0 +1,180 @@
+package es.ulpgc.bd.search.api;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adaptive concurrency limit for the expensive search endpoints (AIMD on observed latency).
+ *
+ * A request runs once fewer than limit requests are in flight. Otherwise it waits in a bounded
+ * queue for at most maxWaitMs, and is rejected when the queue is full or the wait runs out, so
+ * the caller can answer 503 at once instead of piling more fan-out onto Hazelcast. A request that
+ * carries several queries (a batch) weighs one per query, capped at the current limit so that a
+ * batch larger than it still runs once nothing else is in flight.
+ *
+ * Every completion feeds the limit: a request slower than targetMs, partial or failed shrinks it
+ * by DECREASE (at most once per targetMs, so one burst doesn't collapse it). A fast one grows it
+ * by 1/limit per query it carried, i.e. about +1 per limit queries, but only while the limit is actually in use.
+ */
+public class AdmissionControl {
+
+    private static final double DECREASE = 0.8;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueue;
+    private final long maxWaitNanos;
+    private final long targetNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition freed = lock.newCondition();
+    private double limit;
+    private int inFlight;
+    private int waiting;
+    private long lastDecrease;
+
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong decreases = new AtomicLong();
+
+    /** A running request's hold on the limit, released exactly once when it completes. */
+    public interface Slot {
+        /** @param overloaded the request was slow, partial or failed */
+        void release(boolean overloaded);
+    }
+
+    private static final Slot UNLIMITED = overloaded -> {};
+
+    /**
+     * @param maxLimit  upper bound on concurrent requests, 0 disables admission control
+     * @param maxQueue  requests allowed to wait for a slot
+     * @param maxWaitMs longest a request waits before it is rejected
+     * @param targetMs  latency above which the limit shrinks
+     */
+    public AdmissionControl(int minLimit, int maxLimit, int maxQueue, long maxWaitMs, long targetMs) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = maxLimit;
+        this.maxQueue = Math.max(0, maxQueue);
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMs));
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, targetMs));
+        this.limit = Math.max(this.minLimit, maxLimit);
+        this.lastDecrease = System.nanoTime();
+    }
+
+    public boolean enabled() {
+        return maxLimit > 0;
+    }
+
+    /** A slot for a request, or null if it is rejected (queue full, or no slot freed up within maxWaitMs). */
+    public Slot acquire() {
+        return acquire(1);
+    }
+
+    /** Like acquire(), for a request weighing permits queries. */
+    public Slot acquire(int permits) {
+        if (!enabled()) return UNLIMITED;
+
+        int weight;
+        lock.lock();
+        try {
+            if (!fits(permits)) {
+                if (waiting >= maxQueue) {
+                    rejected.incrementAndGet();
+                    return null;
+                }
+                queued.incrementAndGet();
+                waiting++;
+                try {
+                    long left = maxWaitNanos;
+                    while (!fits(permits)) {
+                        if (left <= 0) {
+                            rejected.incrementAndGet();
+                            return null;
+                        }
+                        left = freed.awaitNanos(left);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    rejected.incrementAndGet();
+                    return null;
+                } finally {
+                    waiting--;
+                }
+            }
+            weight = weight(permits);
+            inFlight += weight;
+            admitted.incrementAndGet();
+        } finally {
+            lock.unlock();
+        }
+
+        long start = System.nanoTime();
+        boolean[] released = {false};
+        return overloaded -> {
+            if (released[0]) return;
+            released[0] = true;
+            complete(weight, System.nanoTime() - start, overloaded);
+        };
+    }
+
+    // callers hold the lock
+    private int weight(int permits) {
+        return Math.max(1, Math.min(permits, (int) limit));
+    }
+
+    private boolean fits(int permits) {
+        return inFlight + weight(permits) <= (int) limit;
+    }
+
+    private void complete(int weight, long latencyNanos, boolean overloaded) {
+        lock.lock();
+        try {
+            boolean saturated = inFlight >= limit / 2;
+            inFlight -= weight;
+
+            long now = System.nanoTime();
+            if (overloaded || latencyNanos > targetNanos) {
+                if (now - lastDecrease >= targetNanos) {
+                    limit = Math.max(minLimit, limit * DECREASE);
+                    lastDecrease = now;
+                    decreases.incrementAndGet();
+                }
+            } else if (saturated) {
+                limit = Math.min(maxLimit, limit + (double) weight / limit);
+            }
+            // waiters need different weights: let each check whether it fits now
+            freed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("enabled", enabled());
+        if (!enabled()) return out;
+
+        lock.lock();
+        try {
+            out.put("limit", (int) limit);
+            out.put("inFlight", inFlight);
+            out.put("waiting", waiting);
+        } finally {
+            lock.unlock();
+        }
+        out.put("minLimit", minLimit);
+        out.put("maxLimit", maxLimit);
+        out.put("maxQueue", maxQueue);
+        out.put("targetMs", TimeUnit.NANOSECONDS.toMillis(targetNanos));
+        out.put("admitted", admitted.get());
+        out.put("queued", queued.get());
+        out.put("rejected", rejected.get());
+        out.put("decreases", decreases.get());
+        return out;
+    }
+}
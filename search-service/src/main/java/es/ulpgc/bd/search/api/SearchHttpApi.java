@@ -1,16 +1,38 @@
 package es.ulpgc.bd.search.api;
 
+import es.ulpgc.bd.search.service.ParsedQuery;
+import es.ulpgc.bd.search.service.Ranking;
+import es.ulpgc.bd.search.service.SearchRequest;
+import es.ulpgc.bd.search.service.SearchResult;
 import es.ulpgc.bd.search.service.SearchService;
 import io.javalin.Javalin;
+import io.javalin.http.Context;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 
 public class SearchHttpApi {
+
+    // queries accepted per /search/batch request
+    private static final int MAX_BATCH = 100;
+
+    // seconds an overloaded node asks clients (and nginx, via proxy_next_upstream) to stay away
+    private static final String RETRY_AFTER_SECONDS = "1";
+
     private final SearchService service;
+    private final AdmissionControl admission;
 
     public SearchHttpApi(SearchService service) {
+        this(service, new AdmissionControl(1, 0, 0, 0, 1));
+    }
+
+    /** @param admission limits the concurrent uncached searches; cached ones skip it */
+    public SearchHttpApi(SearchService service, AdmissionControl admission) {
         this.service = service;
+        this.admission = admission;
     }
 
     public void register(Javalin app) {
@@ -22,18 +44,111 @@ public class SearchHttpApi {
             else ctx.status(503).json(Map.of("ready", false));
         });
 
-        app.get("/status", ctx -> ctx.json(service.status()));
+        app.get("/status", ctx -> {
+            Map<String, Object> status = service.status();
+            status.put("admission", admission.stats());
+            ctx.json(status);
+        });
         app.get("/hz/stats", ctx -> ctx.json(service.hzStats()));
 
         app.get("/search", ctx -> {
-            String q = ctx.queryParam("q");
-            if (q == null) q = "";
+            SearchRequest request;
+            try {
+                request = parseSearch(ctx::queryParam);
+            } catch (IllegalArgumentException e) {
+                ctx.status(400).json(Map.of("error", e.getMessage()));
+                return;
+            }
+
+            // a cached answer costs no index work, so it is served even when uncached searches are being shed
+            SearchService.Lookup lookup = service.lookup(request);
+            boolean cached = lookup.cached() != null;
+            AdmissionControl.Slot slot = cached ? null : admission.acquire();
+            if (slot == null && !cached) {
+                reject(ctx);
+                return;
+            }
+            boolean overloaded = true;
+            try {
+                SearchResult result = service.search(lookup);
+                overloaded = result.partial();
+                ctx.json(response(request, result));
+            } finally {
+                if (slot != null) slot.release(overloaded);
+            }
+        });
+
+        // many searches in one call: {"queries": [{"q": ..., <any /search parameter>}, ...]}, answered in order;
+        // an invalid entry gets {"error": ...} in its slot without failing the others
+        app.post("/search/batch", ctx -> {
+            List<?> queries;
+            try {
+                Object body = ctx.bodyAsClass(Map.class).get("queries");
+                if (!(body instanceof List<?> list)) throw new IllegalArgumentException();
+                queries = list;
+            } catch (Exception e) {
+                ctx.status(400).json(Map.of("error", "Expected a JSON body {\"queries\": [...]}"));
+                return;
+            }
+            if (queries.size() > MAX_BATCH) {
+                ctx.status(400).json(Map.of("error", "At most " + MAX_BATCH + " queries per batch"));
+                return;
+            }
+
+            long start = System.nanoTime();
+            List<Object> results = new ArrayList<>();
+            List<SearchRequest> valid = new ArrayList<>();
+            for (Object entry : queries) {
+                try {
+                    if (!(entry instanceof Map<?, ?> params)) throw new IllegalArgumentException("Expected a JSON object");
+                    SearchRequest request = parseSearch(name -> stringParam(params.get(name)));
+                    valid.add(request);
+                    results.add(request);
+                } catch (IllegalArgumentException e) {
+                    results.add(Map.of("error", e.getMessage()));
+                }
+            }
+
+            // a batch weighs one admission permit per query, not one for all of them
+            AdmissionControl.Slot slot = admission.acquire(valid.size());
+            if (slot == null) {
+                reject(ctx);
+                return;
+            }
+            List<SearchResult> answers;
+            boolean overloaded = true;
+            try {
+                answers = service.searchBatch(valid);
+                overloaded = answers.stream().anyMatch(SearchResult::partial);
+            } finally {
+                slot.release(overloaded);
+            }
+            for (int i = 0, next = 0; i < results.size(); i++) {
+                if (results.get(i) instanceof SearchRequest request) results.set(i, response(request, answers.get(next++)));
+            }
+
+            Map<String, Object> response = new LinkedHashMap<>();
+            response.put("count", results.size());
+            response.put("took_ms", (System.nanoTime() - start) / 1_000_000);
+            response.put("results", results);
+            ctx.json(response);
+        });
+
+        // more-like-this: the book's most discriminative terms run as a weighted OR query
+        app.get("/similar/{bookId}", ctx -> {
+            int bookId;
+            try {
+                bookId = Integer.parseInt(ctx.pathParam("bookId"));
+            } catch (NumberFormatException e) {
+                ctx.status(400).json(Map.of("error", "Invalid bookId"));
+                return;
+            }
 
             String author = ctx.queryParam("author");
             String language = ctx.queryParam("language");
 
-            String yearStr = ctx.queryParam("year");
             Integer year = null;
+            String yearStr = ctx.queryParam("year");
             if (yearStr != null && !yearStr.isBlank()) {
                 try {
                     year = Integer.parseInt(yearStr);
@@ -43,9 +158,8 @@ public class SearchHttpApi {
                 }
             }
 
-            String limitStr = ctx.queryParam("limit");
-            String kStr = ctx.queryParam("k");
             int limit = 10;
+            String limitStr = ctx.queryParam("limit");
             if (limitStr != null && !limitStr.isBlank()) {
                 try {
                     limit = Integer.parseInt(limitStr);
@@ -53,30 +167,199 @@ public class SearchHttpApi {
                     ctx.status(400).json(Map.of("error", "Invalid limit parameter"));
                     return;
                 }
-            } else if (kStr != null && !kStr.isBlank()) {
+            }
+
+            boolean exhaustive = "exhaustive".equalsIgnoreCase(ctx.queryParam("eval"));
+            Ranking ranking = Ranking.parse(ctx.queryParam("rank"));
+            if (ranking == null) {
+                ctx.status(400).json(Map.of("error", "Invalid rank parameter (tfidf|bm25)"));
+                return;
+            }
+
+            long timeoutMs;
+            try {
+                timeoutMs = parseTimeout(ctx.queryParam("timeout_ms"));
+            } catch (IllegalArgumentException e) {
+                ctx.status(400).json(Map.of("error", e.getMessage()));
+                return;
+            }
+
+            AdmissionControl.Slot slot = admission.acquire();
+            if (slot == null) {
+                reject(ctx);
+                return;
+            }
+            Map<String, Object> similar;
+            boolean overloaded = true;
+            try {
+                similar = service.similar(bookId, author, language, year, limit, !exhaustive, ranking, timeoutMs);
+                overloaded = similar != null && Boolean.TRUE.equals(similar.get("partial"));
+            } finally {
+                slot.release(overloaded);
+            }
+            if (similar == null) {
+                ctx.status(404).json(Map.of("error", "Book not indexed", "book_id", bookId));
+                return;
+            }
+
+            List<?> results = (List<?>) similar.get("results");
+            Map<String, Object> response = new LinkedHashMap<>();
+            response.put("book_id", bookId);
+            response.put("terms", similar.get("terms"));
+            response.put("eval", exhaustive ? "exhaustive" : "maxscore");
+            response.put("rank", ranking.name().toLowerCase());
+            response.put("partial", similar.get("partial"));
+            response.put("count", results.size());
+            response.put("results", results);
+            ctx.json(response);
+        });
+
+        app.get("/suggest", ctx -> {
+            String prefix = ctx.queryParam("prefix");
+            if (prefix == null || prefix.isBlank()) {
+                ctx.status(400).json(Map.of("error", "Missing prefix parameter"));
+                return;
+            }
+
+            int limit = 10;
+            String limitStr = ctx.queryParam("limit");
+            if (limitStr != null && !limitStr.isBlank()) {
                 try {
-                    limit = Integer.parseInt(kStr);
+                    limit = Integer.parseInt(limitStr);
                 } catch (NumberFormatException e) {
-                    ctx.status(400).json(Map.of("error", "Invalid k parameter"));
+                    ctx.status(400).json(Map.of("error", "Invalid limit parameter"));
                     return;
                 }
             }
 
-            List<Map<String, Object>> results = service.search(q, author, language, year, limit);
-
-            Map<String, Object> response = new java.util.LinkedHashMap<>();
-            response.put("query", q.trim());
-            Map<String, Object> filters = new java.util.LinkedHashMap<>();
-            if (author != null && !author.isBlank()) filters.put("author", author);
-            if (language != null && !language.isBlank()) filters.put("language", language);
-            if (year != null) filters.put("year", year);
-            response.put("filters", filters);
-            response.put("count", results.size());
-            response.put("results", results);
+            List<Map<String, Object>> suggestions = service.suggest(prefix, Math.min(limit, 100));
 
+            Map<String, Object> response = new LinkedHashMap<>();
+            response.put("prefix", prefix.trim().toLowerCase());
+            response.put("count", suggestions.size());
+            response.put("suggestions", suggestions);
             ctx.json(response);
         });
 
         app.get("/hz/members", ctx -> ctx.json(service.hzStats().get("members")));
     }
+
+    private static void reject(Context ctx) {
+        ctx.header("Retry-After", RETRY_AFTER_SECONDS);
+        ctx.status(503).json(Map.of("error", "Search overloaded, retry later"));
+    }
+
+    /**
+     * The /search parameters read through param (query string or batch entry) as a request.
+     *
+     * @throws IllegalArgumentException with the 400 message for the first invalid parameter
+     */
+    private static SearchRequest parseSearch(Function<String, String> param) {
+        String q = param.apply("q");
+        if (!ParsedQuery.isValidSlop(q)) {
+            throw new IllegalArgumentException("Invalid phrase slop (~0 to ~" + ParsedQuery.MAX_SLOP + ")");
+        }
+
+        String author = param.apply("author");
+        String language = param.apply("language");
+
+        String yearStr = param.apply("year");
+        Integer year = null;
+        if (yearStr != null && !yearStr.isBlank()) year = parseInt(yearStr, "Invalid year parameter");
+
+        String limitStr = param.apply("limit");
+        String kStr = param.apply("k");
+        int limit = 10;
+        if (limitStr != null && !limitStr.isBlank()) limit = parseInt(limitStr, "Invalid limit parameter");
+        else if (kStr != null && !kStr.isBlank()) limit = parseInt(kStr, "Invalid k parameter");
+
+        // eval=exhaustive scores every candidate; default maxscore prunes docs that can't reach the top-k
+        boolean exhaustive = "exhaustive".equalsIgnoreCase(param.apply("eval"));
+
+        Ranking ranking = Ranking.parse(param.apply("rank"));
+        if (ranking == null) throw new IllegalArgumentException("Invalid rank parameter (tfidf|bm25)");
+
+        // op=and requires every term; msm=N or msm=P% requires N terms / P% of them (op=or is msm=1)
+        String op = param.apply("op");
+        String msm = param.apply("msm");
+        if (op != null && !op.isBlank() && !op.equalsIgnoreCase("and") && !op.equalsIgnoreCase("or")) {
+            throw new IllegalArgumentException("Invalid op parameter (and|or)");
+        }
+        if (!ParsedQuery.isValidMinMatch(msm)) throw new IllegalArgumentException("Invalid msm parameter (N or P%)");
+        String minMatch = (msm != null && !msm.isBlank()) ? msm : op;
+
+        // fuzzy=1|2 also matches dictionary terms within that many edits of each term (0 = exact)
+        int fuzzy = 0;
+        String fuzzyStr = param.apply("fuzzy");
+        String fuzzyError = "Invalid fuzzy parameter (0-" + SearchService.MAX_FUZZY_EDITS + ")";
+        if (fuzzyStr != null && !fuzzyStr.isBlank()) {
+            fuzzy = parseInt(fuzzyStr.trim(), fuzzyError);
+            if (fuzzy < 0 || fuzzy > SearchService.MAX_FUZZY_EDITS) throw new IllegalArgumentException(fuzzyError);
+        }
+
+        // facets=language,decade,year,author counts every matching doc; facetLimit values per field
+        List<String> facets = SearchService.parseFacets(param.apply("facets"));
+        if (facets == null) {
+            throw new IllegalArgumentException("Invalid facets parameter (" + String.join("|", SearchService.FACET_FIELDS) + ")");
+        }
+        int facetLimit = 10;
+        String facetLimitStr = param.apply("facetLimit");
+        if (facetLimitStr != null && !facetLimitStr.isBlank()) {
+            facetLimit = Math.max(1, Math.min(100, parseInt(facetLimitStr, "Invalid facetLimit parameter")));
+        }
+
+        // snippets=true adds a highlighted "snippet" to each row, from the compressed body chunks
+        String snippetsStr = param.apply("snippets");
+        boolean snippets = "true".equalsIgnoreCase(snippetsStr) || "1".equals(snippetsStr);
+
+        // timeout_ms bounds the search (capped by --searchTimeoutMs); past it the best rows so far come back as partial
+        long timeoutMs = parseTimeout(param.apply("timeout_ms"));
+
+        return new SearchRequest(q, author, language, year, limit, !exhaustive, ranking, minMatch, fuzzy,
+                facets, facetLimit, snippets, timeoutMs);
+    }
+
+    // 0 (service default) when absent
+    private static long parseTimeout(String s) {
+        if (s == null || s.isBlank()) return 0;
+        int ms = parseInt(s.trim(), "Invalid timeout_ms parameter");
+        if (ms <= 0) throw new IllegalArgumentException("Invalid timeout_ms parameter");
+        return ms;
+    }
+
+    private static int parseInt(String s, String error) {
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(error);
+        }
+    }
+
+    // batch entries are JSON: numbers and booleans become their text, a facets array its comma-joined items
+    private static String stringParam(Object value) {
+        if (value == null) return null;
+        if (value instanceof List<?> items) return String.join(",", items.stream().map(String::valueOf).toList());
+        return String.valueOf(value);
+    }
+
+    private static Map<String, Object> response(SearchRequest request, SearchResult result) {
+        List<Map<String, Object>> results = result.results();
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("query", request.q().trim());
+        Map<String, Object> filters = new LinkedHashMap<>();
+        if (request.author() != null && !request.author().isBlank()) filters.put("author", request.author());
+        if (request.language() != null && !request.language().isBlank()) filters.put("language", request.language());
+        if (request.year() != null) filters.put("year", request.year());
+        response.put("filters", filters);
+        response.put("eval", request.prune() ? "maxscore" : "exhaustive");
+        response.put("rank", request.ranking().name().toLowerCase());
+        response.put("match", ParsedQuery.normalizeMinMatch(request.minMatch()));
+        response.put("fuzzy", request.fuzzy());
+        response.put("partial", result.partial());
+        response.put("count", results.size());
+        response.put("results", results);
+        if (!request.facets().isEmpty()) response.put("facets", result.facets());
+        return response;
+    }
 }
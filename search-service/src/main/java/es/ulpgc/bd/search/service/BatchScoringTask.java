@@ -0,0 +1,57 @@
+package es.ulpgc.bd.search.service;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.HazelcastInstanceAware;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.Callable;
+
+/**
+ * The ScoringTasks of several queries of one /search/batch request that go to the same member,
+ * run there one after the other; their results come back in the same order.
+ *
+ * The tasks share a read-through memo of the docs and docTerms entries they load (up to
+ * ScoringTask.MEMO_ENTRIES each), so a doc that is a candidate of several queries is read and
+ * deserialized once per batch instead of once per query.
+ *
+ * Each task keeps its own deadline; one that is reached before its turn returns an empty partial result.
+ */
+public class BatchScoringTask implements Callable<ArrayList<Map<String, Object>>>, Serializable, HazelcastInstanceAware {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ArrayList<ScoringTask> tasks;
+
+    private transient HazelcastInstance hz;
+
+    public BatchScoringTask(List<ScoringTask> tasks) {
+        this.tasks = new ArrayList<>(tasks);
+    }
+
+    // the coordinator waits for the batch until its last task's deadline
+    long deadline() {
+        long latest = Long.MIN_VALUE;
+        for (ScoringTask task : tasks) latest = Math.max(latest, task.deadline());
+        return latest;
+    }
+
+    @Override
+    public void setHazelcastInstance(HazelcastInstance hz) {
+        this.hz = hz;
+    }
+
+    @Override
+    public ArrayList<Map<String, Object>> call() {
+        Map<Integer, Map<String, Object>> metas = new HashMap<>();
+        Map<Integer, Map<String, Integer>> tfs = new HashMap<>();
+
+        ArrayList<Map<String, Object>> out = new ArrayList<>();
+        for (ScoringTask task : tasks) {
+            task.setHazelcastInstance(hz);
+            task.share(metas, tfs);
+            out.add(task.call());
+        }
+        return out;
+    }
+}
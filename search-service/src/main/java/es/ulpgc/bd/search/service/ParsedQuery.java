@@ -0,0 +1,168 @@
+package es.ulpgc.bd.search.service;
+
+import es.ulpgc.bd.analysis.Analyzer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The q parameter split into terms, wildcard terms and quoted phrases:
+ * {@code war shakesp* "pride and prejudice" "war peace"~3}.
+ * Phrase terms are also scoring terms; a phrase additionally requires its terms in order, with at most
+ * slop extra positions in between in total (0 = adjacent). A wildcard ('*' = any characters) stands for
+ * the terms of the dictionary it matches and counts as one term for op/msm.
+ * Terms come from the index's Analyzer; stopwords it drops inside a phrase leave a gap of their positions.
+ */
+public final class ParsedQuery {
+
+    public static final int MAX_SLOP = 50;
+
+    private static final Pattern MIN_MATCH = Pattern.compile("(\\d{1,9})(%?)");
+
+    /** A phrase's terms, the token offset of each from the first (0, 1, 2... unless stopwords were dropped), its slop. */
+    public record Phrase(List<String> terms, int[] offsets, int slop) {
+        // a dropped token shows as '?', which is never part of a term
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("\"");
+            for (int i = 0; i < terms.size(); i++) {
+                if (i > 0) sb.append(" ?".repeat(offsets[i] - offsets[i - 1] - 1)).append(' ');
+                sb.append(terms.get(i));
+            }
+            return sb.append('"').append(slop > 0 ? "~" + slop : "").toString();
+        }
+    }
+
+    private static final Pattern PHRASE = Pattern.compile("\"([^\"]*)\"(?:~(\\d+))?");
+    // separators outside phrases: anything that is neither a token char (as in Analyzer) nor '*'
+    private static final Pattern TOKEN_OR_WILDCARD = Pattern.compile("[^\\p{L}\\p{N}*]+");
+
+    private final List<String> terms;
+    private final List<Phrase> phrases;
+    private final List<String> wildcards;
+
+    private ParsedQuery(List<String> terms, List<Phrase> phrases, List<String> wildcards) {
+        this.terms = terms;
+        this.phrases = phrases;
+        this.wildcards = wildcards;
+    }
+
+    public static ParsedQuery parse(String q) {
+        return parse(q, Analyzer.DEFAULT);
+    }
+
+    public static ParsedQuery parse(String q, Analyzer analyzer) {
+        List<String> terms = new ArrayList<>();
+        List<Phrase> phrases = new ArrayList<>();
+        List<String> wildcards = new ArrayList<>();
+        if (q == null) return new ParsedQuery(terms, phrases, wildcards);
+
+        Matcher m = PHRASE.matcher(q);
+        int last = 0;
+        while (m.find()) {
+            addFreeText(q.substring(last, m.start()), analyzer, terms, wildcards);
+
+            int slop = (m.group(2) == null) ? 0 : Math.min(MAX_SLOP, slop(m.group(2)));
+            Phrase phrase = phrase(m.group(1), slop, analyzer);
+            if (!phrase.terms().isEmpty()) phrases.add(phrase);
+            terms.addAll(phrase.terms());
+            last = m.end();
+        }
+        addFreeText(q.substring(last), analyzer, terms, wildcards);
+        return new ParsedQuery(terms, phrases, wildcards);
+    }
+
+    /** True if no phrase in q asks for a slop above MAX_SLOP (parse caps it, the HTTP API rejects it). */
+    public static boolean isValidSlop(String q) {
+        if (q == null) return true;
+        Matcher m = PHRASE.matcher(q);
+        while (m.find()) {
+            if (m.group(2) != null && slop(m.group(2)) > MAX_SLOP) return false;
+        }
+        return true;
+    }
+
+    // ~N as written, saturated at Integer.MAX_VALUE however many digits it has
+    private static int slop(String digits) {
+        String d = digits.replaceFirst("^0+(?=.)", "");
+        return (d.length() > 9) ? Integer.MAX_VALUE : Integer.parseInt(d);
+    }
+
+    private static Phrase phrase(String text, int slop, Analyzer analyzer) {
+        List<String> words = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        analyzer.analyze(text, (chars, length, position, start, end) -> {
+            words.add(new String(chars, 0, length));
+            positions.add(position);
+        });
+        int[] offsets = new int[words.size()];
+        for (int i = 0; i < offsets.length; i++) offsets[i] = positions.get(i) - positions.get(0);
+        return new Phrase(words, offsets, slop);
+    }
+
+    // outside phrases a token containing '*' is a wildcard (folded like index terms), unless it is nothing but stars
+    private static void addFreeText(String text, Analyzer analyzer, List<String> terms, List<String> wildcards) {
+        for (String p : TOKEN_OR_WILDCARD.split(text.trim())) {
+            if (p.isBlank() || p.replace("*", "").isEmpty()) continue;
+            if (p.indexOf('*') >= 0) wildcards.add(Analyzer.fold(p.replaceAll("\\*+", "*")));
+            else terms.addAll(analyzer.terms(p));
+        }
+    }
+
+    /** All plain terms in query order, phrase terms included. */
+    public List<String> terms() {
+        return terms;
+    }
+
+    public List<Phrase> phrases() {
+        return phrases;
+    }
+
+    /** Wildcard patterns, folded, runs of '*' collapsed. */
+    public List<String> wildcards() {
+        return wildcards;
+    }
+
+    public boolean isEmpty() {
+        return terms.isEmpty() && wildcards.isEmpty();
+    }
+
+    /** Canonical form, used in cache keys: the terms followed by the wildcards and phrases. */
+    public String normalized() {
+        StringBuilder sb = new StringBuilder(String.join(" ", terms));
+        for (String w : wildcards) sb.append(' ').append(w);
+        for (Phrase p : phrases) sb.append(' ').append(p);
+        return sb.toString();
+    }
+
+    /** True for null/blank (default), "and", "or", "N" with N >= 1 and "P%" with P in [1, 100]. */
+    public static boolean isValidMinMatch(String spec) {
+        String s = normalizeMinMatch(spec);
+        if (s.equals("and") || s.equals("or")) return true;
+        Matcher m = MIN_MATCH.matcher(s);
+        if (!m.matches()) return false;
+        int value = Integer.parseInt(m.group(1));
+        return value >= 1 && (m.group(2).isEmpty() || value <= 100);
+    }
+
+    public static String normalizeMinMatch(String spec) {
+        if (spec == null || spec.isBlank()) return "or";
+        return spec.trim().toLowerCase();
+    }
+
+    /**
+     * Number of distinct terms (out of n) a doc must contain: n for "and", 1 for "or",
+     * otherwise N or P% of n rounded down, clamped to [1, n].
+     */
+    public static int minShouldMatch(String spec, int n) {
+        String s = normalizeMinMatch(spec);
+        int k;
+        if (s.equals("and")) k = n;
+        else if (s.equals("or")) k = 1;
+        else if (s.endsWith("%")) k = (int) (Math.min(100L, Long.parseLong(s.substring(0, s.length() - 1))) * n / 100);
+        else k = (int) Math.min(n, Long.parseLong(s));
+        return Math.max(1, Math.min(n, k));
+    }
+}
@@ -0,0 +1,41 @@
+package es.ulpgc.bd.search.service;
+
+import java.util.Arrays;
+
+/**
+ * Checks one document's term positions against a phrase: positions[i] are the ascending positions
+ * of the i-th phrase term and offsets[i] its offset in the phrase (i, unless dropped stopwords left gaps).
+ * Matches if there is one position per term, strictly increasing in phrase order, spanning at most slop
+ * positions more than an exact match would.
+ */
+final class PhraseMatcher {
+
+    private PhraseMatcher() {}
+
+    static boolean matches(int[][] positions, int[] offsets, int slop) {
+        for (int[] p : positions) if (p.length == 0) return false;
+
+        // anchor on each occurrence of the first term
+        for (int start : positions[0]) {
+            if (extend(positions, offsets, 1, start, slop)) return true;
+        }
+        return false;
+    }
+
+    // tries every position of term i within the remaining slop after prev; the window is at most slop+1 wide
+    private static boolean extend(int[][] positions, int[] offsets, int i, int prev, int slop) {
+        if (i == positions.length) return true;
+
+        int[] p = positions[i];
+        int step = offsets[i] - offsets[i - 1];
+        int from = Arrays.binarySearch(p, prev + step);
+        if (from < 0) from = -from - 1;
+
+        for (int k = from; k < p.length; k++) {
+            int gap = p[k] - prev - step;
+            if (gap > slop) break;
+            if (extend(positions, offsets, i + 1, p[k], slop - gap)) return true;
+        }
+        return false;
+    }
+}
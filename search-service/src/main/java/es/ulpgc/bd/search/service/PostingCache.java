@@ -0,0 +1,259 @@
+package es.ulpgc.bd.search.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.hazelcast.core.EntryEvent;
+import com.hazelcast.map.IMap;
+import com.hazelcast.map.MapEvent;
+import com.hazelcast.map.listener.EntryAddedListener;
+import com.hazelcast.map.listener.EntryEvictedListener;
+import com.hazelcast.map.listener.EntryExpiredListener;
+import com.hazelcast.map.listener.EntryRemovedListener;
+import com.hazelcast.map.listener.EntryUpdatedListener;
+import com.hazelcast.map.listener.MapClearedListener;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Local cache of hot posting lists in front of the "postings" map, plus a negative cache
+ * of terms that have no posting list (typos, words never indexed).
+ *
+ * Caffeine's W-TinyLFU admission keeps frequent terms resident under a byte budget.
+ * Every entry is tagged with the index generation the query that loaded it had observed, and only
+ * serves queries that observed that generation or an older one: indexing bumps the generation after
+ * its posting writes, so a query that sees a newer generation reloads instead of trusting an entry
+ * whose invalidation event may still be in flight. The entry listener drops changed entries early
+ * and the TTL bounds how long an unused entry stays.
+ *
+ * Indexing stamps every generation it creates with the time its writes completed ("index-updates");
+ * the delay until that event reaches this member is the invalidation lag reported by stats(). It rides
+ * the same event service as the posting invalidations and assumes reasonably synchronized clocks.
+ */
+public class PostingCache {
+
+    /** Index generation -> epoch ms its writes completed, written by indexing after every update. */
+    public static final String MAP_INDEX_UPDATES = "index-updates";
+    public static final int INDEX_UPDATES_TTL_SECONDS = 600;
+
+    // upper bounds (ms) of the lag histogram buckets; the last bucket is everything above
+    private static final long[] LAG_BUCKETS_MS = {10, 50, 100, 250, 500, 1000, 2500, 5000};
+
+    // a posting list (null for the negative cache) and the generation it is valid for
+    private record Tagged(long generation, byte[] data) {}
+
+    private final IMap<String, byte[]> postings;
+    private final Cache<String, Tagged> lists;
+    private final Cache<String, Tagged> unknown;
+
+    private final long maxBytes;
+    private final long maxUnknown;
+    private final long ttlSeconds;
+
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong clears = new AtomicLong();
+    private final AtomicLong staleMisses = new AtomicLong();
+    private volatile long lastInvalidationMs;
+
+    private final AtomicLong lagCount = new AtomicLong();
+    private final AtomicLong lagTotalMs = new AtomicLong();
+    private final AtomicLong lagMaxMs = new AtomicLong();
+    private final AtomicLongArray lagBuckets = new AtomicLongArray(LAG_BUCKETS_MS.length + 1);
+    private volatile long lastLagMs = -1;
+
+    /**
+     * @param maxBytes   byte budget for cached posting lists, 0 disables both caches
+     * @param maxUnknown entries kept in the negative cache
+     * @param ttlSeconds upper bound on how long an entry is served without being reloaded
+     * @param updates    the "index-updates" map to measure invalidation lag on, or null
+     */
+    public PostingCache(IMap<String, byte[]> postings, long maxBytes, long maxUnknown, long ttlSeconds,
+                        IMap<Long, Long> updates) {
+        this.postings = postings;
+        this.maxBytes = maxBytes;
+        this.maxUnknown = maxUnknown;
+        this.ttlSeconds = ttlSeconds;
+
+        // lag is measured even with the cache off: it is also how late near-cached docs may be
+        if (updates != null) {
+            updates.addEntryListener((EntryAddedListener<Long, Long>) e -> recordLag(e.getValue()), true);
+        }
+
+        if (maxBytes <= 0) {
+            this.lists = null;
+            this.unknown = null;
+            return;
+        }
+
+        this.lists = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String term, Tagged t) -> term.length() + t.data().length + 72)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .build();
+        this.unknown = Caffeine.newBuilder()
+                .maximumSize(Math.max(1, maxUnknown))
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .build();
+
+        postings.addEntryListener(new Invalidator(), false);
+    }
+
+    public boolean enabled() {
+        return lists != null;
+    }
+
+    /**
+     * Posting lists of the known terms, at least as new as index generation (the one the query observed);
+     * unknown terms are absent from the result.
+     */
+    public Map<String, byte[]> getAll(Set<String> terms, long generation) {
+        if (lists == null) return postings.getAll(terms);
+
+        Map<String, byte[]> out = new HashMap<>();
+        Set<String> missing = new HashSet<>();
+        for (String term : terms) {
+            Tagged none = unknown.getIfPresent(term);
+            if (none != null && none.generation() >= generation) continue;
+            Tagged hit = lists.getIfPresent(term);
+            if (hit != null && hit.generation() >= generation) {
+                out.put(term, hit.data());
+                continue;
+            }
+            if (hit != null || none != null) staleMisses.incrementAndGet();
+            missing.add(term);
+        }
+        if (missing.isEmpty()) return out;
+
+        // read after generation was observed, so valid for it; a concurrent load for a newer one is kept
+        Map<String, byte[]> loaded = postings.getAll(missing);
+        for (String term : missing) {
+            byte[] data = loaded.get(term);
+            if (data != null) {
+                out.put(term, data);
+                lists.asMap().merge(term, new Tagged(generation, data), PostingCache::newer);
+                unknown.invalidate(term);
+            } else {
+                unknown.asMap().merge(term, new Tagged(generation, null), PostingCache::newer);
+                lists.invalidate(term);
+            }
+        }
+        return out;
+    }
+
+    private static Tagged newer(Tagged a, Tagged b) {
+        return (b.generation() >= a.generation()) ? b : a;
+    }
+
+    private void invalidate(String term) {
+        lists.invalidate(term);
+        unknown.invalidate(term);
+        invalidations.incrementAndGet();
+        lastInvalidationMs = System.currentTimeMillis();
+    }
+
+    private void recordLag(Long writtenMs) {
+        if (writtenMs == null) return;
+        long lag = Math.max(0, System.currentTimeMillis() - writtenMs);
+        lastLagMs = lag;
+        lagCount.incrementAndGet();
+        lagTotalMs.addAndGet(lag);
+        lagMaxMs.accumulateAndGet(lag, Math::max);
+
+        int b = 0;
+        while (b < LAG_BUCKETS_MS.length && lag > LAG_BUCKETS_MS[b]) b++;
+        lagBuckets.incrementAndGet(b);
+    }
+
+    // write -> local event delay of index updates seen by this member
+    private Map<String, Object> lagStats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        long n = lagCount.get();
+        out.put("updates", n);
+        out.put("lastMs", lastLagMs < 0 ? null : lastLagMs);
+        out.put("avgMs", n == 0 ? null : (double) lagTotalMs.get() / n);
+        out.put("maxMs", n == 0 ? null : lagMaxMs.get());
+
+        Map<String, Long> histogram = new LinkedHashMap<>();
+        for (int b = 0; b < LAG_BUCKETS_MS.length; b++) histogram.put("<=" + LAG_BUCKETS_MS[b], lagBuckets.get(b));
+        histogram.put(">" + LAG_BUCKETS_MS[LAG_BUCKETS_MS.length - 1], lagBuckets.get(LAG_BUCKETS_MS.length));
+        out.put("histogramMs", histogram);
+        return out;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("enabled", enabled());
+        out.put("invalidationLag", lagStats());
+        if (lists == null) return out;
+
+        CacheStats l = lists.stats();
+        out.put("maxBytes", maxBytes);
+        out.put("bytes", lists.policy().eviction().map(e -> e.weightedSize().orElse(0L)).orElse(0L));
+        out.put("entries", lists.estimatedSize());
+        out.put("hits", l.hitCount());
+        out.put("misses", l.missCount());
+        out.put("hitRate", l.hitRate());
+        out.put("evictions", l.evictionCount());
+
+        CacheStats u = unknown.stats();
+        Map<String, Object> neg = new LinkedHashMap<>();
+        neg.put("maxEntries", maxUnknown);
+        neg.put("entries", unknown.estimatedSize());
+        neg.put("hits", u.hitCount());
+        out.put("negative", neg);
+
+        out.put("ttlSeconds", ttlSeconds);
+        out.put("invalidations", invalidations.get());
+        out.put("staleMisses", staleMisses.get());
+        out.put("clears", clears.get());
+        out.put("lastInvalidationMs", lastInvalidationMs == 0 ? null : lastInvalidationMs);
+        return out;
+    }
+
+    private final class Invalidator implements
+            EntryAddedListener<String, byte[]>,
+            EntryUpdatedListener<String, byte[]>,
+            EntryRemovedListener<String, byte[]>,
+            EntryEvictedListener<String, byte[]>,
+            EntryExpiredListener<String, byte[]>,
+            MapClearedListener {
+
+        @Override
+        public void entryAdded(EntryEvent<String, byte[]> e) {
+            invalidate(e.getKey());
+        }
+
+        @Override
+        public void entryUpdated(EntryEvent<String, byte[]> e) {
+            invalidate(e.getKey());
+        }
+
+        @Override
+        public void entryRemoved(EntryEvent<String, byte[]> e) {
+            invalidate(e.getKey());
+        }
+
+        @Override
+        public void entryEvicted(EntryEvent<String, byte[]> e) {
+            invalidate(e.getKey());
+        }
+
+        @Override
+        public void entryExpired(EntryEvent<String, byte[]> e) {
+            invalidate(e.getKey());
+        }
+
+        @Override
+        public void mapCleared(MapEvent e) {
+            lists.invalidateAll();
+            unknown.invalidateAll();
+            clears.incrementAndGet();
+            invalidations.incrementAndGet();
+        }
+    }
+}
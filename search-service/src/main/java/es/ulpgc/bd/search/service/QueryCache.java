@@ -0,0 +1,124 @@
+package es.ulpgc.bd.search.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * In-process cache of final search results, bounded by the total number of cached rows and facet values.
+ *
+ * Keys carry the index generation read before the search ran (bumped by indexing after every
+ * update), so a result can never be served for a newer index than the one it was computed on.
+ * Entries of older generations are dropped as soon as a newer generation is seen.
+ *
+ * A result is only stored once its generation has been seen for settleMs. The docs/docTerms near
+ * caches get their invalidations in batches, asynchronously, so a search that has seen the new
+ * generation may still have read a pre-update doc or term vector there; storing it would keep that
+ * stale answer for the whole generation. Results of an older generation than the newest seen are not stored.
+ */
+public class QueryCache {
+
+    /** Normalized query: terms in query order, normalized filters, limit, evaluation options, facets and snippets. */
+    public record Key(long generation, String terms, String author, String language, Integer year,
+                      int limit, boolean prune, Ranking ranking, String minMatch, int fuzzy,
+                      List<String> facets, int facetLimit, boolean snippets) {}
+
+    private final Cache<Key, SearchResult> cache;
+    private final long maxRows;
+    private final long settleMs;
+
+    private final AtomicLong seenGeneration = new AtomicLong(Long.MIN_VALUE);
+    private volatile long seenAtMs;
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong unsettled = new AtomicLong();
+
+    /**
+     * @param maxRows  total result rows kept (each entry weighs its rows and facet values + 1); 0 disables the cache
+     * @param settleMs how long after a new generation is first seen before its results are stored
+     *                 (the near cache invalidation delay), 0 to store them right away
+     */
+    public QueryCache(long maxRows, long settleMs) {
+        this.maxRows = maxRows;
+        this.settleMs = settleMs;
+        this.cache = (maxRows <= 0) ? null : Caffeine.newBuilder()
+                .maximumWeight(maxRows)
+                .weigher((Key k, SearchResult result) -> result.weight() + 1)
+                .recordStats()
+                .build();
+    }
+
+    public boolean enabled() {
+        return cache != null;
+    }
+
+    public SearchResult get(Key key, Supplier<SearchResult> compute) {
+        if (cache == null) return compute.get();
+
+        SearchResult hit = getIfPresent(key);
+        return (hit != null) ? hit : put(key, compute.get());
+    }
+
+    public SearchResult getIfPresent(Key key) {
+        if (cache == null) return null;
+        observe(key.generation());
+        return cache.getIfPresent(key);
+    }
+
+    /**
+     * Caches a result computed for key, unless partial or computed while its generation was still settling,
+     * and returns the cached (immutable rows) copy.
+     */
+    public SearchResult put(Key key, SearchResult computed) {
+        SearchResult result = new SearchResult(List.copyOf(computed.results()), computed.facets(), computed.partial());
+        if (cache != null && !result.partial() && settled(key.generation())) cache.put(key, result);
+        return result;
+    }
+
+    private boolean settled(long generation) {
+        long seen = seenGeneration.get();
+        if (generation < seen) return false;
+        if (generation == seen && System.currentTimeMillis() - seenAtMs < settleMs) {
+            unsettled.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    public boolean contains(Key key) {
+        return cache != null && cache.getIfPresent(key) != null;
+    }
+
+    private void observe(long generation) {
+        long seen = seenGeneration.get();
+        if (generation > seen && seenGeneration.compareAndSet(seen, generation)) {
+            seenAtMs = System.currentTimeMillis();
+            if (seen != Long.MIN_VALUE) invalidations.incrementAndGet();
+            cache.asMap().keySet().removeIf(k -> k.generation() < generation);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("enabled", enabled());
+        if (cache == null) return out;
+
+        CacheStats s = cache.stats();
+        out.put("maxRows", maxRows);
+        out.put("entries", cache.estimatedSize());
+        out.put("hits", s.hitCount());
+        out.put("misses", s.missCount());
+        out.put("hitRate", s.hitRate());
+        out.put("evictions", s.evictionCount());
+        out.put("generation", seenGeneration.get() == Long.MIN_VALUE ? null : seenGeneration.get());
+        out.put("invalidations", invalidations.get());
+        out.put("settleMs", settleMs);
+        out.put("unsettledSkips", unsettled.get());
+        return out;
+    }
+}
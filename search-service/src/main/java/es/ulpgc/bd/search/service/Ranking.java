@@ -0,0 +1,43 @@
+package es.ulpgc.bd.search.service;
+
+import java.util.Locale;
+
+/**
+ * Scoring function selected per request (rank=tfidf|bm25).
+ *
+ * TFIDF: sum of tf * qtf * idf, idf = ln((N+1)/(df+1)) + 1.
+ * BM25:  sum of qtf * idf * tf(k1+1) / (tf + k1(1 - b + b*len/avgLen)), idf = ln(1 + (N-df+0.5)/(df+0.5)),
+ *        with len and avgLen maintained by indexing, so it costs the same per candidate as TFIDF.
+ */
+public enum Ranking {
+    TFIDF,
+    BM25;
+
+    public static final double K1 = 1.2;
+    public static final double B = 0.75;
+
+    public double idf(long n, int df) {
+        if (this == BM25) return Math.log(1.0 + (n - df + 0.5) / (df + 0.5));
+        return Math.log((n + 1.0) / (df + 1.0)) + 1.0;
+    }
+
+    /** Largest contribution of a term with the given query weight and max tf (null if unknown). */
+    public double bound(double weight, Integer maxTf) {
+        if (this == BM25) {
+            // tf saturates at k1+1 and is largest for the shortest possible doc (len -> 0)
+            if (maxTf == null) return (K1 + 1) * weight;
+            return maxTf * (K1 + 1) / (maxTf + K1 * (1 - B)) * weight;
+        }
+        return (maxTf == null) ? Double.POSITIVE_INFINITY : maxTf * weight;
+    }
+
+    /** null for an unknown name. */
+    public static Ranking parse(String s) {
+        if (s == null || s.isBlank()) return TFIDF;
+        try {
+            return valueOf(s.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
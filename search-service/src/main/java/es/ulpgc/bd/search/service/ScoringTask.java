@@ -0,0 +1,349 @@
+package es.ulpgc.bd.search.service;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.HazelcastInstanceAware;
+import com.hazelcast.map.IMap;
+import es.ulpgc.bd.format.AuthorGrams;
+import es.ulpgc.bd.format.FacetCodec;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.Callable;
+
+/**
+ * Scores a set of candidate docs and returns their top-k rows ("rows"), plus the value counts of the
+ * requested facet fields over every candidate passing the filters ("facets": field -> value -> count).
+ *
+ * Submitted to the member that owns the candidates' partitions, so the docs/docTerms
+ * reads are local and only the partial top-k travels back to the coordinator.
+ * The same task is also run in-process as the non-distributed fallback.
+ * Indexing members load this class through Hazelcast user code deployment.
+ *
+ * With pruning on, candidates are visited by decreasing score upper bound (sum of the
+ * per-term bounds of the query terms they contain, MaxScore style) and evaluation stops
+ * once no remaining candidate can enter the current top-k, so results match exhaustive mode.
+ *
+ * Without terms (filter-only browsing) every doc passing the filters scores 0 and the
+ * lowest book ids win, so evaluation stops as soon as the heap is full.
+ *
+ * Facets count all candidates, pruned or not, from the compact "doc-facets" records, which are
+ * partitioned like "docs" and so are local reads too; docs without a record fall back to "docs".
+ *
+ * The deadline (epoch ms, members' clocks are assumed roughly in sync) is checked before every chunk,
+ * as is the thread's interrupt flag, which the coordinator raises by cancelling the task. A task that
+ * stops early returns the top-k and facet counts of the chunks it got through, with "partial" set.
+ */
+public class ScoringTask implements Callable<Map<String, Object>>, Serializable, HazelcastInstanceAware {
+
+    private static final long serialVersionUID = 6L;
+
+    static final int HYDRATE_CHUNK = 512;
+    static final int FACET_CHUNK = 4096;
+    static final int MEMO_ENTRIES = 4096;
+
+    static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    // lowest score first, ties broken towards the higher book id, so the heap head is the row to evict
+    static final Comparator<Map<String, Object>> WORST_FIRST =
+            Comparator.<Map<String, Object>>comparingDouble(m -> (double) m.get("score"))
+                    .thenComparing(m -> (Integer) m.get("book_id"), Comparator.reverseOrder());
+
+    private final ArrayList<String> terms;
+    private final double[] weights;
+    private final double[] bounds;
+    private final String author;
+    private final String language;
+    private final Integer year;
+    private final int limit;
+    private final int[] docIds;
+    private final long[] termMasks;
+    private final boolean prune;
+    private final Ranking ranking;
+    private final double avgLength;
+    private final ArrayList<String> facets;
+    private final long deadline;
+
+    private transient HazelcastInstance hz;
+    private transient boolean cut;
+
+    // docs/docTerms entries shared with the other tasks of a BatchScoringTask; null when run alone
+    private transient Map<Integer, Map<String, Object>> metaMemo;
+    private transient Map<Integer, Map<String, Integer>> tfMemo;
+
+    /**
+     * @param terms     distinct query terms
+     * @param weights   per term: query term count * idf
+     * @param bounds    per term: upper bound of its score contribution, or +Infinity if unknown
+     * @param docIds    candidates
+     * @param termMasks per candidate: bit i set if it appears in the posting list of terms[i]
+     * @param avgLength average doc length in tokens, used by BM25
+     * @param facets    facet fields to count (author, language, year, decade), empty for none
+     * @param deadline  epoch ms after which evaluation stops, NO_DEADLINE for none
+     */
+    public ScoringTask(List<String> terms, double[] weights, double[] bounds,
+                       String author, String language, Integer year,
+                       int limit, int[] docIds, long[] termMasks, boolean prune,
+                       Ranking ranking, double avgLength, List<String> facets, long deadline) {
+        this.terms = new ArrayList<>(terms);
+        this.weights = weights;
+        this.bounds = bounds;
+        this.author = author;
+        this.language = language;
+        this.year = year;
+        this.limit = limit;
+        this.docIds = docIds;
+        this.termMasks = termMasks;
+        this.prune = prune;
+        this.ranking = ranking;
+        this.avgLength = avgLength;
+        this.facets = new ArrayList<>(facets);
+        this.deadline = deadline;
+    }
+
+    long deadline() {
+        return deadline;
+    }
+
+    @Override
+    public void setHazelcastInstance(HazelcastInstance hz) {
+        this.hz = hz;
+    }
+
+    void share(Map<Integer, Map<String, Object>> metas, Map<Integer, Map<String, Integer>> tfs) {
+        this.metaMemo = metas;
+        this.tfMemo = tfs;
+    }
+
+    @Override
+    public Map<String, Object> call() {
+        IMap<Integer, Map<String, Object>> docs = hz.getMap("docs");
+        IMap<Integer, Map<String, Integer>> docTerms = hz.getMap("docTerms");
+
+        cut = false;
+        HashMap<String, Object> out = new HashMap<>();
+        out.put("rows", topK(docs, docTerms));
+        if (!facets.isEmpty()) out.put("facets", countFacets(docs));
+        if (cut) out.put("partial", true);
+        return out;
+    }
+
+    private ArrayList<Map<String, Object>> topK(IMap<Integer, Map<String, Object>> docs,
+                                                IMap<Integer, Map<String, Integer>> docTerms) {
+
+        int n = docIds.length;
+        double[] upper = new double[n];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+            upper[i] = upperBound(termMasks[i]);
+        }
+        if (prune) Arrays.sort(order, (x, y) -> Double.compare(upper[y], upper[x]));
+
+        PriorityQueue<Map<String, Object>> pq = new PriorityQueue<>(WORST_FIRST);
+        boolean browse = terms.isEmpty();
+
+        // start small when pruning: the first few best-bounded docs usually fix the threshold;
+        // browsing walks ascending ids and usually fills the heap from the first chunk
+        int chunkSize = (prune || browse) ? Math.min(HYDRATE_CHUNK, Math.max(16, limit * 2)) : HYDRATE_CHUNK;
+
+        for (int pos = 0; pos < n; ) {
+            if (prune && cannotCompete(pq, upper[order[pos]])) break;
+            if (browse && pq.size() >= limit) break;
+            if (outOfTime()) break;
+
+            int end = Math.min(n, pos + chunkSize);
+            Set<Integer> chunk = new HashSet<>();
+            for (int i = pos; i < end; i++) {
+                if (prune && cannotCompete(pq, upper[order[i]])) break;
+                chunk.add(docIds[order[i]]);
+            }
+            pos = end;
+            chunkSize = Math.min(HYDRATE_CHUNK, chunkSize * 2);
+
+            Map<Integer, Map<String, Object>> metas = fetch(docs, chunk, metaMemo);
+
+            Set<Integer> passing = new HashSet<>();
+            for (Map.Entry<Integer, Map<String, Object>> e : metas.entrySet()) {
+                if (e.getValue() != null && passesFilters(e.getValue())) passing.add(e.getKey());
+            }
+            if (passing.isEmpty()) continue;
+
+            if (browse) {
+                for (Integer docId : passing) {
+                    pq.offer(row(docId, metas.get(docId), 0.0));
+                    if (pq.size() > limit) pq.poll();
+                }
+                continue;
+            }
+
+            // term vectors are the heavy part, so only load them for docs that survived the filters
+            Map<Integer, Map<String, Integer>> tfMaps = fetch(docTerms, passing, tfMemo);
+
+            for (Integer docId : passing) {
+                Map<String, Integer> tfMap = tfMaps.get(docId);
+                if (tfMap == null) continue;
+
+                double score = 0.0;
+                double norm = (ranking == Ranking.BM25) ? bm25Norm(metas.get(docId), tfMap) : 0.0;
+
+                for (int t = 0; t < terms.size(); t++) {
+                    int tf = tfMap.getOrDefault(terms.get(t), 0);
+                    if (tf <= 0) continue;
+
+                    if (ranking == Ranking.BM25) score += weights[t] * tf * (Ranking.K1 + 1) / (tf + norm);
+                    else score += tf * weights[t];
+                }
+
+                if (score <= 0) continue;
+
+                pq.offer(row(docId, metas.get(docId), score));
+                if (pq.size() > limit) pq.poll();
+            }
+        }
+
+        return new ArrayList<>(pq);
+    }
+
+    // getAll through memo (if any): keys found there aren't read again, and what is read is added while it has room
+    private static <V> Map<Integer, V> fetch(IMap<Integer, V> map, Set<Integer> keys, Map<Integer, V> memo) {
+        if (memo == null) return map.getAll(keys);
+
+        Map<Integer, V> out = new HashMap<>();
+        Set<Integer> missing = new HashSet<>();
+        for (Integer key : keys) {
+            V value = memo.get(key);
+            if (value != null) out.put(key, value);
+            else missing.add(key);
+        }
+        if (missing.isEmpty()) return out;
+
+        Map<Integer, V> read = map.getAll(missing);
+        out.putAll(read);
+        for (Map.Entry<Integer, V> e : read.entrySet()) {
+            if (memo.size() >= MEMO_ENTRIES) break;
+            memo.put(e.getKey(), e.getValue());
+        }
+        return out;
+    }
+
+    private HashMap<String, HashMap<String, Integer>> countFacets(IMap<Integer, Map<String, Object>> docs) {
+        IMap<Integer, byte[]> docFacets = hz.getMap("doc-facets");
+
+        HashMap<String, HashMap<String, Integer>> counts = new HashMap<>();
+        for (String field : facets) counts.put(field, new HashMap<>());
+
+        for (int from = 0; from < docIds.length; from += FACET_CHUNK) {
+            if (outOfTime()) break;
+            Set<Integer> chunk = new HashSet<>();
+            for (int i = from; i < Math.min(docIds.length, from + FACET_CHUNK); i++) chunk.add(docIds[i]);
+
+            Map<Integer, byte[]> records = docFacets.getAll(chunk);
+            Set<Integer> missing = new HashSet<>();
+            for (Integer docId : chunk) {
+                FacetCodec.Facets f = FacetCodec.decode(records.get(docId));
+                if (f == null) missing.add(docId);
+                else count(counts, f.author(), f.language(), f.year());
+            }
+
+            // docs indexed before doc-facets existed
+            if (missing.isEmpty()) continue;
+            for (Map<String, Object> meta : fetch(docs, missing, metaMemo).values()) {
+                if (meta != null) count(counts, str(meta.get("author")), str(meta.get("language")), toIntOrZero(meta.get("year")));
+            }
+        }
+        return counts;
+    }
+
+    private void count(Map<String, HashMap<String, Integer>> counts, String author, String language, int year) {
+        if (!passesFilters(str(author), str(language), year)) return;
+
+        for (String field : facets) {
+            String value = switch (field) {
+                case "author" -> str(author);
+                case "language" -> str(language);
+                case "year" -> (year == 0) ? null : String.valueOf(year);
+                case "decade" -> (year == 0) ? null : (year / 10 * 10) + "s";
+                default -> null;
+            };
+            if (value != null) counts.get(field).merge(value, 1, Integer::sum);
+        }
+    }
+
+    // sets cut once the deadline has passed or the task was cancelled
+    private boolean outOfTime() {
+        if (!cut && (Thread.currentThread().isInterrupted()
+                || (deadline != NO_DEADLINE && System.currentTimeMillis() >= deadline))) {
+            cut = true;
+        }
+        return cut;
+    }
+
+    // k1(1 - b + b*len/avgLen); docs indexed before lengths were stored fall back to their term vector
+    private double bm25Norm(Map<String, Object> meta, Map<String, Integer> tfMap) {
+        int len = toIntOrZero(meta.get("length"));
+        if (len <= 0) for (int c : tfMap.values()) len += c;
+        double rel = (avgLength > 0) ? len / avgLength : 1.0;
+        return Ranking.K1 * (1 - Ranking.B + Ranking.B * rel);
+    }
+
+    private double upperBound(long mask) {
+        double ub = 0.0;
+        for (int t = 0; t < terms.size(); t++) {
+            if ((mask & (1L << t)) != 0) ub += bounds[t];
+        }
+        return ub;
+    }
+
+    // a doc bounded exactly at the threshold may still tie and win on book id, so only strictly lower bounds are cut
+    private boolean cannotCompete(PriorityQueue<Map<String, Object>> pq, double upper) {
+        if (pq.size() < limit) return false;
+        double threshold = (double) pq.peek().get("score");
+        return upper < threshold - 1e-9 * Math.max(1.0, Math.abs(threshold));
+    }
+
+    private static Map<String, Object> row(int docId, Map<String, Object> meta, double score) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("book_id", docId);
+        row.put("title", str(meta.get("title")));
+        row.put("author", str(meta.get("author")));
+        row.put("language", str(meta.get("language")));
+        row.put("year", meta.get("year"));
+        row.put("score", score);
+        return row;
+    }
+
+    private boolean passesFilters(Map<String, Object> meta) {
+        Object y = meta.get("year");
+        return passesFilters(str(meta.get("author")), str(meta.get("language")), (y == null) ? null : toIntOrZero(y));
+    }
+
+    private boolean passesFilters(String a, String l, Integer y) {
+        if (author != null && !author.isBlank()) {
+            if (a == null || !AuthorGrams.normalize(a).contains(AuthorGrams.normalize(author))) return false;
+        }
+        if (language != null && !language.isBlank()) {
+            if (l == null || !l.equalsIgnoreCase(language)) return false;
+        }
+        if (year != null) {
+            if (y == null || y.intValue() != year) return false;
+        }
+        return true;
+    }
+
+    private static int toIntOrZero(Object o) {
+        if (o == null) return 0;
+        if (o instanceof Integer i) return i;
+        if (o instanceof Long l) return (int) l.longValue();
+        if (o instanceof Double d) return (int) d.doubleValue();
+        if (o instanceof String s) {
+            try { return Integer.parseInt(s.trim()); } catch (Exception ignored) {}
+        }
+        return 0;
+    }
+
+    private static String str(Object o) {
+        if (o == null) return null;
+        String s = String.valueOf(o);
+        return s.isBlank() ? null : s;
+    }
+}
@@ -0,0 +1,29 @@
+package es.ulpgc.bd.search.service;
+
+import java.util.List;
+
+/**
+ * One search, as accepted by /search and by each entry of /search/batch.
+ *
+ * @param q          query text; empty browses the docs matching the filters
+ * @param prune      true for MaxScore-style early termination, false to score every candidate;
+ *                   both return the same top-k
+ * @param ranking    scoring function
+ * @param minMatch   how many distinct terms a doc must contain: "1" (OR), "and", "N" or "P%"
+ * @param fuzzy      edit distance (0 to MAX_FUZZY_EDITS) within which terms outside phrases also match
+ *                   other dictionary terms; terms under 3 chars stay exact, under 6 chars get 1 edit at most
+ * @param facets     facet fields (see SearchService.parseFacets) counted over every matching doc, not just the top-k
+ * @param facetLimit values returned per facet field, most frequent first
+ * @param snippets   adds a highlighted "snippet" to the first Snippets.MAX_ROWS rows
+ * @param timeoutMs  time budget in ms, 0 for the service default; the service caps it at its own limit
+ */
+public record SearchRequest(String q, String author, String language, Integer year, int limit,
+                            boolean prune, Ranking ranking, String minMatch, int fuzzy,
+                            List<String> facets, int facetLimit, boolean snippets, long timeoutMs) {
+
+    public SearchRequest {
+        if (q == null) q = "";
+        if (ranking == null) ranking = Ranking.TFIDF;
+        facets = (facets == null) ? List.of() : List.copyOf(facets);
+    }
+}
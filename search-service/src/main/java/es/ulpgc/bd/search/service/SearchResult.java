@@ -0,0 +1,22 @@
+package es.ulpgc.bd.search.service;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Top-k rows of a search and, when requested, facet counts over every matching doc:
+ * field -> [{value, count}], highest count first.
+ *
+ * partial is set when the search ran out of its time budget: rows and facets then cover only the
+ * candidates evaluated in time, and the result is not cached.
+ */
+public record SearchResult(List<Map<String, Object>> results, Map<String, List<Map<String, Object>>> facets,
+                           boolean partial) {
+
+    /** Query cache weight: rows plus facet values. */
+    int weight() {
+        int w = results.size();
+        for (List<Map<String, Object>> values : facets.values()) w += values.size();
+        return w;
+    }
+}
@@ -1,19 +1,69 @@
 package es.ulpgc.bd.search.service;
 
+import com.hazelcast.cluster.Member;
 import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.HazelcastInstanceAware;
+import com.hazelcast.core.IExecutorService;
+import com.hazelcast.cp.IAtomicLong;
 import com.hazelcast.map.IMap;
-import com.hazelcast.multimap.MultiMap;
-
+import com.hazelcast.map.listener.EntryAddedListener;
+import com.hazelcast.map.listener.EntryUpdatedListener;
+import com.hazelcast.nearcache.NearCacheStats;
+import com.hazelcast.partition.PartitionService;
+import es.ulpgc.bd.analysis.Analyzer;
+import es.ulpgc.bd.format.AuthorGrams;
+import es.ulpgc.bd.format.PostingCodec;
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 
 public class SearchService {
 
     private static final String MAP_DOCS = "docs";
     private static final String MAP_DOC_TERMS = "docTerms";
-    private static final String MM_INVERTED = "inverted-index";
-
-    private static final Pattern TOKEN = Pattern.compile("[^\\p{IsAlphabetic}\\p{IsDigit}]+");
+    private static final String MAP_POSTINGS = "postings";
+    private static final String MAP_TERM_DF = "term-df";
+    private static final String MAP_TERM_MAXTF = "term-maxtf";
+    private static final String MAP_FILTER_BITMAPS = "filter-bitmaps";
+    private static final String MAP_POSITIONS = "positions";
+    private static final String MAP_DOC_CHUNKS = "doc-chunks";
+    private static final String MAP_DOC_CHUNK_STARTS = "doc-chunk-starts";
+    private static final String AL_DOC_COUNT = "doc-count";
+    private static final String AL_DOC_LENGTH_TOTAL = "doc-length-total";
+    private static final String AL_INDEX_GENERATION = "index-generation";
+    private static final String MAP_INDEX_SETTINGS = "index-settings";
+    private static final String SETTING_ANALYZER = "analyzer";
+    private static final String EXEC_SCORING = "search-scoring";
+
+    // more-like-this: source terms kept, and the share of the corpus above which a term is too common to help
+    public static final int SIMILAR_TERMS = 25;
+    private static final double SIMILAR_MAX_DF_RATIO = 0.5;
+
+    // facet fields a search can count, in response order
+    public static final List<String> FACET_FIELDS = List.of("language", "decade", "year", "author");
+
+    // docs whose phrase positions are fetched per getAll
+    private static final int PHRASE_CHUNK = 256;
+
+    // dictionary terms a wildcard stands for, highest df first
+    private static final int MAX_EXPANSIONS = 32;
+
+    // fuzzy: dictionary terms added per query term (closest, then most frequent first),
+    // and the weight factor applied per edit
+    public static final int MAX_FUZZY_EDITS = 2;
+    private static final int MAX_FUZZY_EXPANSIONS = 16;
+    private static final double FUZZY_DECAY = 0.5;
+
+    // how long past a deadline the coordinator still waits for members, which stop at the deadline themselves
+    private static final long GATHER_GRACE_MS = 50;
 
     private final HazelcastInstance hz;
     private final String hzCluster;
@@ -22,9 +72,41 @@ public class SearchService {
 
     private final IMap<Integer, Map<String, Object>> docs;
     private final IMap<Integer, Map<String, Integer>> docTerms;
-    private final MultiMap<String, Integer> invertedIndex;
+    private final IMap<String, byte[]> postings;
+    private final IMap<String, Integer> termDf;
+    private final IMap<String, Integer> termMaxTf;
+    private final IMap<String, byte[]> filterBitmaps;
+    private final IMap<String, byte[]> positions;
+    private final IAtomicLong docCount;
+    private final IAtomicLong totalLength;
+    private final IAtomicLong generation;
+
+    private final IExecutorService scoring;
+    private final boolean distributed;
+    private final QueryCache cache;
+    private final PostingCache postingCache;
+
+    // the index's analyzer chain ("index-settings"), DEFAULT until indexing publishes one
+    private volatile Analyzer analyzer = Analyzer.DEFAULT;
+    private final TermDictionary dictionary;
+    private final Snippets snippets;
+    private final long searchTimeoutMs;
 
     public SearchService(HazelcastInstance hz, String hzCluster, String hzContact, int port) {
+        this(hz, hzCluster, hzContact, port, true, 0, 0, null, 2000, 0);
+    }
+
+    /**
+     * @param cacheRows       result rows kept by the query cache, 0 to disable it
+     * @param cacheSettleMs   how long a new index generation is seen before its results are cached
+     * @param postingCache    local posting list cache, null to read the postings map directly
+     * @param dictRefreshMs   how often the local term dictionary snapshot is rebuilt when terms changed
+     * @param searchTimeoutMs default and maximum time budget of a search, 0 for none
+     */
+    public SearchService(HazelcastInstance hz, String hzCluster, String hzContact, int port,
+                         boolean distributed, long cacheRows, long cacheSettleMs, PostingCache postingCache,
+                         long dictRefreshMs,
+                         long searchTimeoutMs) {
         this.hz = hz;
         this.hzCluster = hzCluster;
         this.hzContact = hzContact;
@@ -32,7 +114,37 @@ public class SearchService {
 
         this.docs = hz.getMap(MAP_DOCS);
         this.docTerms = hz.getMap(MAP_DOC_TERMS);
-        this.invertedIndex = hz.getMultiMap(MM_INVERTED);
+        this.postings = hz.getMap(MAP_POSTINGS);
+        this.termDf = hz.getMap(MAP_TERM_DF);
+        this.termMaxTf = hz.getMap(MAP_TERM_MAXTF);
+        this.filterBitmaps = hz.getMap(MAP_FILTER_BITMAPS);
+        this.positions = hz.getMap(MAP_POSITIONS);
+        this.docCount = hz.getCPSubsystem().getAtomicLong(AL_DOC_COUNT);
+        this.totalLength = hz.getCPSubsystem().getAtomicLong(AL_DOC_LENGTH_TOTAL);
+        this.generation = hz.getCPSubsystem().getAtomicLong(AL_INDEX_GENERATION);
+
+        this.scoring = hz.getExecutorService(EXEC_SCORING);
+        this.distributed = distributed;
+        this.cache = new QueryCache(cacheRows, cacheSettleMs);
+        this.postingCache = (postingCache != null) ? postingCache : new PostingCache(postings, 0, 0, 0, null);
+        this.dictionary = new TermDictionary(termDf, dictRefreshMs);
+        this.snippets = new Snippets(positions, hz.getMap(MAP_DOC_CHUNKS), hz.getMap(MAP_DOC_CHUNK_STARTS));
+        this.searchTimeoutMs = searchTimeoutMs;
+
+        // queries are analyzed with the chain the index was built with, published by indexing
+        IMap<String, String> settings = hz.getMap(MAP_INDEX_SETTINGS);
+        settings.addEntryListener((EntryAddedListener<String, String>) e -> useAnalyzer(e.getKey(), e.getValue()), true);
+        settings.addEntryListener((EntryUpdatedListener<String, String>) e -> useAnalyzer(e.getKey(), e.getValue()), true);
+        useAnalyzer(SETTING_ANALYZER, settings.get(SETTING_ANALYZER));
+    }
+
+    private void useAnalyzer(String setting, String spec) {
+        if (!SETTING_ANALYZER.equals(setting)) return;
+        try {
+            analyzer = Analyzer.fromSpec(spec);
+        } catch (IllegalArgumentException e) {
+            System.out.println("[SEARCH] ignoring index analyzer '" + spec + "': " + e.getMessage());
+        }
     }
 
     public boolean isReady() {
@@ -51,7 +163,35 @@ public class SearchService {
         out.put("hz", hzContact);
         out.put("docs", docs.size());
         out.put("docTermsDocs", docTerms.size());
-        out.put("terms", invertedIndex.keySet().size());
+        out.put("terms", termDf.size());
+        out.put("avgDocLength", (double) totalLength.get() / Math.max(1, docCount.get()));
+        out.put("scoring", distributed ? "distributed" : "local");
+        out.put("searchTimeoutMs", searchTimeoutMs);
+        out.put("analyzer", analyzer.spec());
+        out.put("cache", cache.stats());
+        out.put("postingCache", postingCache.stats());
+        out.put("dictionary", dictionary.stats());
+        out.put("nearCache", Map.of(
+                MAP_DOCS, nearCacheStats(docs),
+                MAP_DOC_TERMS, nearCacheStats(docTerms)
+        ));
+        return out;
+    }
+
+    private static Map<String, Object> nearCacheStats(IMap<?, ?> map) {
+        Map<String, Object> out = new LinkedHashMap<>();
+        NearCacheStats s = map.getLocalMapStats().getNearCacheStats();
+        out.put("enabled", s != null);
+        if (s == null) return out;
+
+        out.put("entries", s.getOwnedEntryCount());
+        out.put("bytes", s.getOwnedEntryMemoryCost());
+        out.put("hits", s.getHits());
+        out.put("misses", s.getMisses());
+        long lookups = s.getHits() + s.getMisses();
+        out.put("hitRate", lookups == 0 ? 0.0 : (double) s.getHits() / lookups);
+        out.put("evictions", s.getEvictions());
+        out.put("invalidations", s.getInvalidations());
         return out;
     }
 
@@ -67,110 +207,695 @@ public class SearchService {
         out.put("maps", Map.of(
                 MAP_DOCS, docs.size(),
                 MAP_DOC_TERMS, docTerms.size(),
-                MM_INVERTED, invertedIndex.keySet().size()
+                MAP_POSTINGS, postings.size(),
+                MAP_FILTER_BITMAPS, filterBitmaps.size()
         ));
 
         return out;
     }
 
+    /** Top-n dictionary terms starting with prefix (folded like index terms), by document frequency. */
+    public List<Map<String, Object>> suggest(String prefix, int n) {
+        if (prefix == null || prefix.isBlank() || n <= 0) return List.of();
+        return dictionary.suggest(Analyzer.fold(prefix.trim()), n);
+    }
+
     public List<Map<String, Object>> search(String q, String author, String language, Integer year, int limit) {
-        List<String> terms = tokenize(q);
-        if (terms.isEmpty()) return List.of();
+        return search(new SearchRequest(q, author, language, year, limit, true, Ranking.TFIDF, "1", 0,
+                List.of(), 0, false, 0)).results();
+    }
 
-        Set<Integer> candidates = new HashSet<>();
-        for (String term : terms) {
-            Collection<Integer> docsForTerm = invertedIndex.get(term);
-            if (docsForTerm != null) candidates.addAll(docsForTerm);
+    /**
+     * Books similar to bookId ("more like this"): its SIMILAR_TERMS most discriminative terms, by
+     * (1 + ln tf) * idf with df from the local term dictionary, run as an OR query where each term's
+     * weight is scaled by its share of the best term's tf-idf. The book itself is left out.
+     * Terms found in a single doc or in more than half of them are skipped.
+     *
+     * @return {book_id, terms: [{term, weight}], results, partial}, or null if the book isn't indexed
+     */
+    public Map<String, Object> similar(int bookId, String author, String language, Integer year, int limit,
+                                       boolean prune, Ranking ranking, long timeoutMs) {
+        Map<String, Integer> tf = docTerms.get(bookId);
+        if (tf == null) return null;
+
+        long N = Math.max(1, docCount.get());
+        PriorityQueue<Map.Entry<String, Double>> top = new PriorityQueue<>(Map.Entry.comparingByValue());
+        for (Map.Entry<String, Integer> e : tf.entrySet()) {
+            int df = dictionary.df(e.getKey());
+            if (df < 2 || df > SIMILAR_MAX_DF_RATIO * N) continue;
+
+            top.offer(Map.entry(e.getKey(), (1 + Math.log(e.getValue())) * Ranking.TFIDF.idf(N, df)));
+            if (top.size() > SIMILAR_TERMS) top.poll();
         }
 
-        if (candidates.isEmpty()) return List.of();
+        List<Map.Entry<String, Double>> picked = new ArrayList<>(top);
+        picked.sort(Map.Entry.<String, Double>comparingByValue().reversed());
+
+        List<String> terms = new ArrayList<>();
+        double[] factors = new double[picked.size()];
+        List<int[]> clauses = new ArrayList<>();
+        List<Map<String, Object>> termRows = new ArrayList<>();
+        for (int i = 0; i < picked.size(); i++) {
+            terms.add(picked.get(i).getKey());
+            factors[i] = picked.get(i).getValue() / picked.get(0).getValue();
+            clauses.add(new int[]{i});
 
-        int N = Math.max(1, docs.size());
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("term", picked.get(i).getKey());
+            row.put("weight", factors[i]);
+            termRows.add(row);
+        }
 
-        PriorityQueue<Map<String, Object>> pq =
-                new PriorityQueue<>(Comparator.comparingDouble(m -> (double) m.get("score")));
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("book_id", bookId);
+        out.put("terms", termRows);
+        if (terms.isEmpty() || limit <= 0) {
+            out.put("results", List.of());
+            out.put("partial", false);
+            return out;
+        }
 
-        for (Integer docId : candidates) {
-            Map<String, Object> meta = docs.get(docId);
-            if (meta == null) continue;
-            if (!passesFilters(meta, author, language, year)) continue;
+        SearchRequest request = new SearchRequest("", author, language, year, limit, prune, ranking, "or", 0,
+                List.of(), 0, false, timeoutMs);
+        long deadline = deadline(request);
+        long observed = generation.get();
+        Plan plan = new Plan(terms, factors, clauses, List.of(), bookId);
+        Supplier<SearchResult> compute = () -> complete(run(plan, filterBitmap(author, language, year), request,
+                null, observed, deadline));
+
+        // "similar:<id>" can't collide with a normalized query, whose tokens never contain ':'
+        SearchResult result = cache.enabled()
+                ? cache.get(cacheKey(observed, "similar:" + bookId, request), compute) : compute.get();
+        out.put("results", result.results());
+        out.put("partial", result.partial());
+        return out;
+    }
 
-            Map<String, Integer> tfMap = docTerms.get(docId);
-            if (tfMap == null) continue;
+    /** Canonical facet field list (FACET_FIELDS order) from "decade,language"; null if a field is unknown. */
+    public static List<String> parseFacets(String spec) {
+        if (spec == null || spec.isBlank()) return List.of();
+        Set<String> asked = new HashSet<>();
+        for (String f : spec.split(",")) {
+            String field = f.trim().toLowerCase(Locale.ROOT);
+            if (field.isEmpty()) continue;
+            if (!FACET_FIELDS.contains(field)) return null;
+            asked.add(field);
+        }
+        List<String> out = new ArrayList<>();
+        for (String field : FACET_FIELDS) if (asked.contains(field)) out.add(field);
+        return out;
+    }
+
+    /**
+     * An empty q browses the docs matching the filters alone (lowest book ids first, score 0),
+     * which needs at least one filter resolvable from the filter bitmaps.
+     *
+     * A search that reaches its deadline (see SearchRequest.timeoutMs) stops fetching and scoring candidates,
+     * cancels the scoring tasks still running and returns the best rows found so far, marked partial.
+     *
+     * The index generation is read once, before any index data: the query cache key and the posting
+     * cache lookups both use it, so a cached answer is never older than the generation it is stored under.
+     */
+    public SearchResult search(SearchRequest request) {
+        return search(lookup(request));
+    }
 
-            double score = 0.0;
+    /**
+     * A search parsed against the current index generation and looked up in the query cache, so a caller
+     * can tell whether it needs index work (e.g. to skip admission control) before running it with search(lookup).
+     * cached is the answer when no index work is needed (cache hit, or a limit of 0), otherwise null.
+     */
+    public record Lookup(SearchRequest request, ParsedQuery query, long generation, QueryCache.Key key,
+                         SearchResult cached) {}
+
+    /** Parses the query and reads the generation once; see Lookup. */
+    public Lookup lookup(SearchRequest request) {
+        if (request.limit() <= 0) return new Lookup(request, null, 0, null, empty(request));
+
+        long observed = generation.get();
+        ParsedQuery query = ParsedQuery.parse(request.q(), analyzer);
+        if (!cache.enabled()) return new Lookup(request, query, observed, null, null);
+        QueryCache.Key key = cacheKey(observed, query.normalized(), request);
+        return new Lookup(request, query, observed, key, cache.getIfPresent(key));
+    }
 
-            for (String term : terms) {
-                int tf = tfMap.getOrDefault(term, 0);
-                if (tf <= 0) continue;
+    /** search(request) for a lookup taken just before; the time budget starts here. */
+    public SearchResult search(Lookup lookup) {
+        if (lookup.cached() != null) return lookup.cached();
 
-                Collection<Integer> posting = invertedIndex.get(term);
-                int df = (posting == null) ? 0 : posting.size();
+        SearchRequest request = lookup.request();
+        SearchResult result = complete(prepare(lookup.query(), request, null, lookup.generation(), deadline(request)));
+        return (lookup.key() != null) ? cache.put(lookup.key(), result) : result;
+    }
 
-                double idf = Math.log((N + 1.0) / (df + 1.0)) + 1.0;
-                score += tf * idf;
+    /**
+     * Several searches at once, results in request order, each equal to what search(request) returns.
+     * Cached answers are served first; the rest share one getAll for the posting lists of all their plain
+     * terms (expansions are fetched per query), and each member gets a single BatchScoringTask carrying
+     * every query's candidates it owns, which reads a doc's metadata and term vector once for the batch.
+     * Each query's time budget starts with the batch.
+     */
+    public List<SearchResult> searchBatch(List<SearchRequest> requests) {
+        int n = requests.size();
+        SearchResult[] out = new SearchResult[n];
+        QueryCache.Key[] keys = new QueryCache.Key[n];
+        ParsedQuery[] queries = new ParsedQuery[n];
+        long[] deadlines = new long[n];
+        for (int i = 0; i < n; i++) deadlines[i] = deadline(requests.get(i));
+        long observed = generation.get();
+
+        Set<String> terms = new HashSet<>();
+        for (int i = 0; i < n; i++) {
+            SearchRequest request = requests.get(i);
+            if (request.limit() <= 0) {
+                out[i] = empty(request);
+                continue;
+            }
+            queries[i] = ParsedQuery.parse(request.q(), analyzer);
+            if (cache.enabled()) {
+                keys[i] = cacheKey(observed, queries[i].normalized(), request);
+                out[i] = cache.getIfPresent(keys[i]);
+                if (out[i] != null) continue;
             }
+            terms.addAll(queries[i].terms());
+        }
 
-            if (score <= 0) continue;
+        Map<String, byte[]> shared = new HashMap<>();
+        if (!terms.isEmpty()) fetchPostings(terms, shared, observed);
 
-            Map<String, Object> row = new LinkedHashMap<>();
-            row.put("book_id", docId);
-            row.put("title", str(meta.get("title")));
-            row.put("author", str(meta.get("author")));
-            row.put("language", str(meta.get("language")));
-            row.put("year", meta.get("year"));
-            row.put("score", score);
+        Prepared[] prepared = new Prepared[n];
+        Map<Member, List<int[]>> slots = new LinkedHashMap<>();
+        for (int i = 0; i < n; i++) {
+            if (out[i] != null) continue;
+            prepared[i] = prepare(queries[i], requests.get(i), shared, observed, deadlines[i]);
+            for (int t = 0; t < prepared[i].tasks().size(); t++) {
+                slots.computeIfAbsent(prepared[i].owners().get(t), m -> new ArrayList<>()).add(new int[]{i, t});
+            }
+        }
 
-            pq.offer(row);
-            if (pq.size() > limit) pq.poll();
+        // one task per member for the whole batch: scatter all, then gather
+        List<BatchScoringTask> batches = new ArrayList<>();
+        List<Future<ArrayList<Map<String, Object>>>> futures = new ArrayList<>();
+        for (Map.Entry<Member, List<int[]>> e : slots.entrySet()) {
+            List<ScoringTask> tasks = new ArrayList<>();
+            for (int[] slot : e.getValue()) tasks.add(prepared[slot[0]].tasks().get(slot[1]));
+            BatchScoringTask batch = new BatchScoringTask(tasks);
+            batches.add(batch);
+            futures.add(submit(batch, e.getKey()));
+        }
+
+        List<List<Map<String, Object>>> partials = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            partials.add(prepared[i] == null ? null : new ArrayList<>(Collections.nCopies(prepared[i].tasks().size(), null)));
+        }
+        int b = 0;
+        for (List<int[]> memberSlots : slots.values()) {
+            List<Map<String, Object>> results = gather(batches.get(b), futures.get(b), batches.get(b).deadline());
+            b++;
+            if (results == null) continue;
+            for (int s = 0; s < memberSlots.size(); s++) {
+                int[] slot = memberSlots.get(s);
+                partials.get(slot[0]).set(slot[1], results.get(s));
+            }
+        }
+
+        for (int i = 0; i < n; i++) {
+            if (prepared[i] == null) continue;
+            out[i] = finish(prepared[i], partials.get(i));
+            if (keys[i] != null) out[i] = cache.put(keys[i], out[i]);
+        }
+        return Arrays.asList(out);
+    }
+
+    private static QueryCache.Key cacheKey(long generation, String terms, SearchRequest request) {
+        List<String> facets = request.facets();
+        return new QueryCache.Key(
+                generation,
+                terms,
+                (request.author() == null) ? "" : AuthorGrams.normalize(request.author()),
+                (request.language() == null) ? "" : request.language().trim().toLowerCase(Locale.ROOT),
+                request.year(), request.limit(), request.prune(), request.ranking(),
+                ParsedQuery.normalizeMinMatch(request.minMatch()), request.fuzzy(),
+                facets, facets.isEmpty() ? 0 : request.facetLimit(), request.snippets());
+    }
+
+    private static SearchResult empty(SearchRequest request) {
+        return new SearchResult(List.of(), topFacets(Map.of(), request.facets(), request.facetLimit()), false);
+    }
+
+    // epoch ms by which request must be answered: its timeout, capped at (or defaulting to) searchTimeoutMs
+    private long deadline(SearchRequest request) {
+        long ms = request.timeoutMs();
+        if (searchTimeoutMs > 0) ms = (ms > 0) ? Math.min(ms, searchTimeoutMs) : searchTimeoutMs;
+        return (ms > 0) ? System.currentTimeMillis() + ms : ScoringTask.NO_DEADLINE;
+    }
+
+    private static boolean expired(long deadline) {
+        return deadline != ScoringTask.NO_DEADLINE && System.currentTimeMillis() >= deadline;
+    }
+
+    /**
+     * A search up to the point where it is scattered: its ScoringTasks with the member each goes to, and
+     * the terms to highlight in snippets (null for no snippets). No tasks when nothing can match, or when
+     * the deadline passed while the candidates were being built (partial).
+     */
+    private record Prepared(SearchRequest request, List<Member> owners, List<ScoringTask> tasks,
+                            List<String> highlight, long deadline, boolean partial) {}
+
+    private static Prepared none(SearchRequest request, long deadline) {
+        return new Prepared(request, List.of(), List.of(), null, deadline, false);
+    }
+
+    private static Prepared timedOut(SearchRequest request, long deadline) {
+        return new Prepared(request, List.of(), List.of(), null, deadline, true);
+    }
+
+    /**
+     * @param shared posting lists already fetched by term, null outside batches; lists fetched for this query
+     *               are added to it
+     * @param generation index generation the query observed, which cached posting lists must be at least as new as
+     */
+    private Prepared prepare(ParsedQuery query, SearchRequest request, Map<String, byte[]> shared, long generation,
+                             long deadline) {
+        Prepared none = none(request, deadline);
+        int fuzzy = request.fuzzy();
+
+        RoaringBitmap filter = filterBitmap(request.author(), request.language(), request.year());
+        if (query.isEmpty()) {
+            if (filter == null || filter.isEmpty()) return none;
+            return scatter(List.of(), new double[0], new double[0], request, filter.toArray(),
+                    new long[filter.getCardinality()], request.prune(), 0.0, deadline);
+        }
+
+        // distinct terms with their query counts; wildcards add their expansions with count 1.
+        // Each plain term and each wildcard is one clause for op/msm, holding the indices of its terms.
+        Map<String, Integer> queryTf = new LinkedHashMap<>();
+        for (String t : query.terms()) queryTf.merge(t, 1, Integer::sum);
+        List<String> terms = new ArrayList<>(queryTf.keySet());
+        List<int[]> clauses = new ArrayList<>();
+        for (int i = 0; i < terms.size(); i++) clauses.add(new int[]{i});
+
+        // fuzzy expansions join their term's clause with the term's query count, weighted down per edit
+        Map<String, Double> boost = new HashMap<>();
+        if (fuzzy > 0) {
+            Set<String> exact = new HashSet<>();
+            for (ParsedQuery.Phrase phrase : query.phrases()) exact.addAll(phrase.terms());
+
+            int plain = terms.size();
+            for (int k = 0; k < plain; k++) {
+                String term = terms.get(k);
+                int edits = Math.min(fuzzy, term.length() < 3 ? 0 : term.length() < 6 ? 1 : MAX_FUZZY_EDITS);
+                if (edits == 0 || exact.contains(term)) continue;
+
+                List<Integer> clause = new ArrayList<>(List.of(k));
+                for (TermDictionary.Expansion e : dictionary.fuzzy(term, edits, MAX_FUZZY_EXPANSIONS)) {
+                    if (e.distance() == 0) continue;
+                    if (queryTf.putIfAbsent(e.term(), queryTf.get(term)) == null) {
+                        terms.add(e.term());
+                        boost.put(e.term(), Math.pow(FUZZY_DECAY, e.distance()));
+                    } else if (boost.containsKey(e.term())) {
+                        boost.merge(e.term(), Math.pow(FUZZY_DECAY, e.distance()), Math::max);
+                    }
+                    clause.add(terms.indexOf(e.term()));
+                }
+                clauses.set(k, clause.stream().mapToInt(Integer::intValue).toArray());
+            }
+        }
+
+        for (String pattern : query.wildcards()) {
+            List<String> expansions = dictionary.expand(pattern, MAX_EXPANSIONS);
+            int[] clause = new int[expansions.size()];
+            for (int e = 0; e < clause.length; e++) {
+                String term = expansions.get(e);
+                if (queryTf.putIfAbsent(term, 1) == null) terms.add(term);
+                clause[e] = terms.indexOf(term);
+            }
+            clauses.add(clause);
+        }
+        if (terms.isEmpty()) return none;
+
+        double[] factors = new double[terms.size()];
+        for (int i = 0; i < factors.length; i++) {
+            factors[i] = queryTf.get(terms.get(i)) * boost.getOrDefault(terms.get(i), 1.0);
+        }
+        return run(new Plan(terms, factors, clauses, query.phrases(), -1), filter, request, shared, generation,
+                deadline);
+    }
+
+    /**
+     * Terms to look up with their query weight factors (scoring weight = factor * idf), grouped into the
+     * clauses op/msm count; phrases that must match; a doc id to leave out of the results, or -1.
+     */
+    private record Plan(List<String> terms, double[] factors, List<int[]> clauses,
+                        List<ParsedQuery.Phrase> phrases, int exclude) {}
+
+    private Prepared run(Plan plan, RoaringBitmap filter, SearchRequest request, Map<String, byte[]> shared,
+                         long generation, long deadline) {
+        Prepared none = none(request, deadline);
+        List<String> terms = plan.terms();
+        List<int[]> clauses = plan.clauses();
+        Ranking ranking = request.ranking();
+
+        // one mask bit per term, so pruning needs <= 64 of them
+        boolean prune = request.prune() && terms.size() <= 64;
+
+        Map<String, byte[]> stored = (shared != null) ? shared : new HashMap<>();
+        fetchPostings(terms, stored, generation);
+        if (expired(deadline)) return timedOut(request, deadline);
+
+        // df is in the list header; lists are only decoded to seed the candidates, the rest is probed with skips
+        int n = terms.size();
+        byte[][] lists = new byte[n][];
+        int[] dfs = new int[n];
+        for (int i = 0; i < n; i++) {
+            lists[i] = stored.get(terms.get(i));
+            dfs[i] = PostingCodec.count(lists[i]);
+        }
+
+        // a doc matching at least msm of the clauses is in one of the (clauses - msm + 1) rarest ones, so only
+        // those seed the candidates: the rarest clause alone for op=and, all of them for a plain OR
+        int c = clauses.size();
+        int msm = ParsedQuery.minShouldMatch(request.minMatch(), c);
+        long[] clauseDf = new long[c];
+        Integer[] byDf = new Integer[c];
+        for (int k = 0; k < c; k++) {
+            byDf[k] = k;
+            for (int t : clauses.get(k)) clauseDf[k] += dfs[t];
+        }
+        Arrays.sort(byDf, Comparator.comparingLong(k -> clauseDf[k]));
+
+        RoaringBitmap candidates = new RoaringBitmap();
+        for (int r = 0; r <= c - msm; r++) {
+            for (int t : clauses.get(byDf[r])) candidates.or(RoaringBitmap.bitmapOf(PostingCodec.decode(lists[t])));
+        }
+
+        // the filter bitmaps narrow the candidates, so docs failing the filters are
+        // (almost, see filterBitmap) never hydrated
+        if (filter != null) candidates.and(filter);
+        if (plan.exclude() >= 0) candidates.remove(plan.exclude());
+
+        // every phrase is required: intersect its terms' lists first, then check positions on what's left
+        for (ParsedQuery.Phrase phrase : plan.phrases()) {
+            for (String term : phrase.terms()) candidates = retain(candidates, lists[terms.indexOf(term)]);
+            if (candidates.isEmpty()) return none;
+            if (phrase.terms().size() > 1) candidates = phraseMatches(phrase, candidates, deadline);
+            if (expired(deadline)) return timedOut(request, deadline);
+        }
+        if (candidates.isEmpty()) return none;
+
+        // term masks and matched clauses per candidate, skipping through each list with the ascending candidates
+        int[] ids = candidates.toArray();
+        long[] masks = new long[ids.length];
+        int[] matched = new int[ids.length];
+        for (int[] clause : clauses) {
+            boolean[] any = new boolean[ids.length];
+            for (int t : clause) {
+                boolean[] present = PostingCodec.members(lists[t], ids);
+                long bit = (t < 64) ? 1L << t : 0L;
+                for (int i = 0; i < ids.length; i++) {
+                    if (!present[i]) continue;
+                    masks[i] |= bit;
+                    any[i] = true;
+                }
+            }
+            for (int i = 0; i < ids.length; i++) if (any[i]) matched[i]++;
+        }
+
+        if (msm > 1) {
+            int kept = 0;
+            for (int i = 0; i < ids.length; i++) {
+                if (matched[i] < msm) continue;
+                ids[kept] = ids[i];
+                masks[kept++] = masks[i];
+            }
+            if (kept == 0) return none;
+            ids = Arrays.copyOf(ids, kept);
+            masks = Arrays.copyOf(masks, kept);
+        }
+
+        // df comes from the posting list header; max tf, N and total length from the statistics kept by indexing
+        Map<String, Integer> maxTfs = prune ? termMaxTf.getAll(new HashSet<>(terms)) : Map.of();
+        long N = Math.max(1, docCount.get());
+        double avgLength = (ranking == Ranking.BM25) ? (double) totalLength.get() / N : 0.0;
+
+        double[] weights = new double[terms.size()];
+        double[] bounds = new double[terms.size()];
+        for (int i = 0; i < terms.size(); i++) {
+            String term = terms.get(i);
+            weights[i] = plan.factors()[i] * ranking.idf(N, dfs[i]);
+            bounds[i] = ranking.bound(weights[i], maxTfs.get(term));
+        }
+
+        return scatter(terms, weights, bounds, request, ids, masks, prune, avgLength, deadline);
+    }
+
+    // one ScoringTask per member owning some of the candidates
+    private Prepared scatter(List<String> terms, double[] weights, double[] bounds, SearchRequest request,
+                             int[] ids, long[] masks, boolean prune, double avgLength, long deadline) {
+        List<Member> owners = new ArrayList<>();
+        List<ScoringTask> tasks = new ArrayList<>();
+        for (Map.Entry<Member, int[]> e : groupByOwner(ids, ids.length).entrySet()) {
+            int[] positions = e.getValue();
+            int[] docIds = new int[positions.length];
+            long[] docMasks = new long[positions.length];
+            for (int i = 0; i < positions.length; i++) {
+                docIds[i] = ids[positions[i]];
+                docMasks[i] = masks[positions[i]];
+            }
+
+            owners.add(e.getKey());
+            tasks.add(new ScoringTask(terms, weights, bounds, request.author(), request.language(), request.year(),
+                    request.limit(), docIds, docMasks, prune, request.ranking(), avgLength, request.facets(),
+                    deadline));
+        }
+        return new Prepared(request, owners, tasks, request.snippets() ? terms : null, deadline, false);
+    }
+
+    // scatter to all owners first, then gather the partial top-k lists and facet counts
+    private SearchResult complete(Prepared prepared) {
+        List<Future<Map<String, Object>>> futures = new ArrayList<>();
+        for (int i = 0; i < prepared.tasks().size(); i++) {
+            futures.add(submit(prepared.tasks().get(i), prepared.owners().get(i)));
+        }
+        List<Map<String, Object>> partials = new ArrayList<>();
+        for (int i = 0; i < prepared.tasks().size(); i++) {
+            partials.add(gather(prepared.tasks().get(i), futures.get(i), prepared.deadline()));
+        }
+        return finish(prepared, partials);
+    }
+
+    /**
+     * Merges the partial results of prepared's tasks (same order; null for a task that didn't answer in time)
+     * and attaches snippets if there is time left.
+     */
+    private SearchResult finish(Prepared prepared, List<Map<String, Object>> partials) {
+        SearchRequest request = prepared.request();
+        boolean partialResult = prepared.partial();
+        PriorityQueue<Map<String, Object>> pq = new PriorityQueue<>(ScoringTask.WORST_FIRST);
+        Map<String, Map<String, Integer>> counts = new HashMap<>();
+        for (Map<String, Object> partial : partials) {
+            if (partial == null || Boolean.TRUE.equals(partial.get("partial"))) partialResult = true;
+            if (partial == null) continue;
+            for (Map<String, Object> row : rowsOf(partial)) {
+                pq.offer(row);
+                if (pq.size() > request.limit()) pq.poll();
+            }
+            facetsOf(partial).forEach((field, values) -> values.forEach(
+                    (value, n) -> counts.computeIfAbsent(field, f -> new HashMap<>()).merge(value, n, Integer::sum)));
         }
 
         List<Map<String, Object>> out = new ArrayList<>();
         while (!pq.isEmpty()) out.add(pq.poll());
         Collections.reverse(out);
+        if (prepared.highlight() != null) {
+            if (expired(prepared.deadline())) partialResult = true;
+            else snippets.attach(out, prepared.highlight(), analyzer);
+        }
+        return new SearchResult(out, topFacets(counts, request.facets(), request.facetLimit()), partialResult);
+    }
+
+    // adds the posting lists of terms missing from fetched (null for terms without one)
+    private void fetchPostings(Collection<String> terms, Map<String, byte[]> fetched, long generation) {
+        Set<String> missing = new HashSet<>();
+        for (String term : terms) if (!fetched.containsKey(term)) missing.add(term);
+        if (missing.isEmpty()) return;
+
+        Map<String, byte[]> found = postingCache.getAll(missing, generation);
+        for (String term : missing) fetched.put(term, found.get(term));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> rowsOf(Map<String, Object> partial) {
+        return (List<Map<String, Object>>) partial.getOrDefault("rows", List.of());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Map<String, Integer>> facetsOf(Map<String, Object> partial) {
+        return (Map<String, Map<String, Integer>>) partial.getOrDefault("facets", Map.of());
+    }
+
+    // per requested field, its facetLimit most frequent values (ties by value) as {value, count} rows
+    private static Map<String, List<Map<String, Object>>> topFacets(Map<String, Map<String, Integer>> counts,
+                                                                    List<String> facets, int facetLimit) {
+        Map<String, List<Map<String, Object>>> out = new LinkedHashMap<>();
+        for (String field : facets) {
+            List<Map.Entry<String, Integer>> values = new ArrayList<>(counts.getOrDefault(field, Map.of()).entrySet());
+            values.sort(Map.Entry.<String, Integer>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+
+            List<Map<String, Object>> rows = new ArrayList<>();
+            for (Map.Entry<String, Integer> e : values.subList(0, Math.min(facetLimit, values.size()))) {
+                Map<String, Object> row = new LinkedHashMap<>();
+                row.put("value", e.getKey());
+                row.put("count", e.getValue());
+                rows.add(row);
+            }
+            out.put(field, rows);
+        }
         return out;
     }
 
-    private boolean passesFilters(Map<String, Object> meta, String author, String language, Integer year) {
-        if (author != null && !author.isBlank()) {
-            String a = str(meta.get("author"));
-            if (a == null || !a.toLowerCase().contains(author.toLowerCase())) return false;
+    private static RoaringBitmap retain(RoaringBitmap candidates, byte[] list) {
+        int[] ids = candidates.toArray();
+        boolean[] present = PostingCodec.members(list, ids);
+        RoaringBitmap out = new RoaringBitmap();
+        for (int i = 0; i < ids.length; i++) if (present[i]) out.add(ids[i]);
+        return out;
+    }
+
+    /**
+     * Docs among candidates (which contain all phrase terms) whose positions match the phrase.
+     * Docs indexed without positions can't be checked and are kept, i.e. matched as AND.
+     * Stops at the deadline, leaving out the docs not checked yet.
+     */
+    private RoaringBitmap phraseMatches(ParsedQuery.Phrase phrase, RoaringBitmap candidates, long deadline) {
+        List<String> words = phrase.terms();
+        RoaringBitmap out = new RoaringBitmap();
+        int[] docs = candidates.toArray();
+
+        for (int from = 0; from < docs.length && !expired(deadline); from += PHRASE_CHUNK) {
+            int to = Math.min(docs.length, from + PHRASE_CHUNK);
+            Set<String> keys = new HashSet<>();
+            for (int i = from; i < to; i++) {
+                for (String w : words) keys.add(positionsKey(w, docs[i]));
+            }
+            Map<String, byte[]> found = positions.getAll(keys);
+
+            for (int i = from; i < to; i++) {
+                int[][] pos = new int[words.size()][];
+                boolean indexed = true;
+                for (int w = 0; w < words.size() && indexed; w++) {
+                    byte[] data = found.get(positionsKey(words.get(w), docs[i]));
+                    if (data == null) indexed = false;
+                    else pos[w] = PostingCodec.decode(data);
+                }
+                if (!indexed || PhraseMatcher.matches(pos, phrase.offsets(), phrase.slop())) out.add(docs[i]);
+            }
         }
-        if (language != null && !language.isBlank()) {
-            String l = str(meta.get("language"));
-            if (l == null || !l.equalsIgnoreCase(language)) return false;
+        return out;
+    }
+
+    static String positionsKey(String term, int docId) {
+        return term + "|" + docId;
+    }
+
+    /**
+     * Intersection of the bitmaps for the requested filters; null when no filter can be resolved from them.
+     * language and year are exact. author intersects the bitmaps of its trigrams, a superset of the
+     * substring matches that ScoringTask narrows down; authors shorter than a trigram are only checked there.
+     */
+    private RoaringBitmap filterBitmap(String author, String language, Integer year) {
+        Set<String> keys = new LinkedHashSet<>();
+        if (language != null && !language.isBlank()) keys.add("language:" + language.trim().toLowerCase(Locale.ROOT));
+        if (year != null) keys.add("year:" + year);
+        if (author != null) {
+            for (String gram : AuthorGrams.grams(AuthorGrams.normalize(author))) keys.add("author:" + gram);
         }
-        if (year != null) {
-            Object y = meta.get("year");
-            if (y == null) return false;
-            int yi = toIntOrZero(y);
-            if (yi != year) return false;
+        if (keys.isEmpty()) return null;
+
+        Map<String, byte[]> found = filterBitmaps.getAll(keys);
+        List<RoaringBitmap> bitmaps = new ArrayList<>();
+        for (String key : keys) bitmaps.add(fromBytes(found.get(key)));
+        return FastAggregation.and(bitmaps.iterator());
+    }
+
+    private static RoaringBitmap fromBytes(byte[] data) {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        if (data == null || data.length == 0) return bitmap;
+        try {
+            bitmap.deserialize(ByteBuffer.wrap(data));
+        } catch (IOException e) {
+            throw new IllegalStateException("corrupt filter bitmap", e);
         }
-        return true;
+        return bitmap;
     }
 
-    private List<String> tokenize(String q) {
-        if (q == null) return List.of();
-        String[] parts = TOKEN.split(q.toLowerCase().trim());
-        List<String> out = new ArrayList<>();
-        for (String p : parts) if (!p.isBlank()) out.add(p);
-        return out;
+    private <T, C extends Callable<T> & HazelcastInstanceAware> Future<T> submit(C task, Member owner) {
+        if (!distributed) return null;
+        try {
+            return scoring.submitToMember(task, owner);
+        } catch (Exception ex) {
+            System.out.println("[SEARCH] cannot submit scoring to " + owner.getAddress() + ": " + ex.getMessage());
+            return null;
+        }
     }
 
-    private int toIntOrZero(Object o) {
-        if (o == null) return 0;
-        if (o instanceof Integer i) return i;
-        if (o instanceof Long l) return (int) l.longValue();
-        if (o instanceof Double d) return (int) d.doubleValue();
-        if (o instanceof String s) {
-            try { return Integer.parseInt(s.trim()); } catch (Exception ignored) {}
+    /**
+     * The task's result, waiting at most until deadline + GATHER_GRACE_MS; a task still running then is
+     * cancelled (interrupting it on its member) and null is returned.
+     * A member that can't run the task (left the cluster, class loading failed...) is scored here with
+     * remote reads, unless the deadline has already passed.
+     */
+    private <T, C extends Callable<T> & HazelcastInstanceAware> T gather(C task, Future<T> future, long deadline) {
+        if (future != null) {
+            try {
+                if (deadline == ScoringTask.NO_DEADLINE) return future.get();
+                long wait = Math.max(0, deadline - System.currentTimeMillis()) + GATHER_GRACE_MS;
+                return future.get(wait, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException te) {
+                future.cancel(true);
+                System.out.println("[SEARCH] scoring past deadline, cancelled");
+                return null;
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            } catch (Exception ex) {
+                System.out.println("[SEARCH] remote scoring failed, scoring locally: " + ex.getMessage());
+            }
+        }
+        if (expired(deadline)) return null;
+        task.setHazelcastInstance(hz);
+        try {
+            return task.call();
+        } catch (RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new IllegalStateException("local scoring failed", ex);
         }
-        return 0;
     }
 
-    private String str(Object o) {
-        if (o == null) return null;
-        String s = String.valueOf(o);
-        return s.isBlank() ? null : s;
+    // positions in ids[0..n) grouped by the member owning the doc's partition
+    private Map<Member, int[]> groupByOwner(int[] ids, int n) {
+        PartitionService partitions = hz.getPartitionService();
+        Member local = hz.getCluster().getLocalMember();
+
+        Member[] owners = new Member[n];
+        Map<Member, int[]> byOwner = new HashMap<>();
+        Map<Member, Integer> sizes = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            Member owner = partitions.getPartition(ids[i]).getOwner();
+            // partitions mid-migration have no owner; the local member scores them with remote reads
+            owners[i] = (owner == null) ? local : owner;
+            sizes.merge(owners[i], 1, Integer::sum);
+        }
+
+        Map<Member, Integer> filled = new HashMap<>();
+        for (Map.Entry<Member, Integer> e : sizes.entrySet()) {
+            byOwner.put(e.getKey(), new int[e.getValue()]);
+            filled.put(e.getKey(), 0);
+        }
+        for (int i = 0; i < n; i++) {
+            int at = filled.merge(owners[i], 1, Integer::sum) - 1;
+            byOwner.get(owners[i])[at] = i;
+        }
+        return byOwner;
     }
 }
@@ -0,0 +1,192 @@
+package es.ulpgc.bd.search.service;
+
+import com.hazelcast.map.IMap;
+import es.ulpgc.bd.analysis.Analyzer;
+import es.ulpgc.bd.format.BodyChunks;
+import es.ulpgc.bd.format.PostingCodec;
+
+import java.util.*;
+
+/**
+ * Adds a highlighted "snippet" to the final result rows, from the side store written by indexing
+ * (compressed body chunks plus the token position each chunk starts at) and the positional index.
+ *
+ * Per hit, the query term positions pick the WINDOW-token window holding the most distinct terms
+ * (then the most occurrences); only the one or two chunks covering it are fetched and inflated, in one
+ * getAll for all hits. Docs indexed without positions get the beginning of their body; docs indexed
+ * without chunks get no snippet. Matched terms are wrapped in &lt;em&gt;, the rest is HTML-escaped.
+ */
+final class Snippets {
+
+    static final int WINDOW = 24;
+    static final int MAX_ROWS = 100;
+
+    // tokens shown before the first term of the window
+    private static final int LEAD = 4;
+
+    private final IMap<String, byte[]> positions;
+    private final IMap<String, byte[]> chunks;
+    private final IMap<Integer, int[]> chunkStarts;
+
+    Snippets(IMap<String, byte[]> positions, IMap<String, byte[]> chunks, IMap<Integer, int[]> chunkStarts) {
+        this.positions = positions;
+        this.chunks = chunks;
+        this.chunkStarts = chunkStarts;
+    }
+
+    /**
+     * Snippets for the first MAX_ROWS rows, highlighting terms (index terms, empty when browsing);
+     * analyzer is the chain the index was built with, which token positions and chunk starts count.
+     */
+    void attach(List<Map<String, Object>> rows, List<String> terms, Analyzer analyzer) {
+        List<Map<String, Object>> hits = rows.subList(0, Math.min(MAX_ROWS, rows.size()));
+        if (hits.isEmpty()) return;
+
+        Set<Integer> ids = new HashSet<>();
+        for (Map<String, Object> row : hits) ids.add((Integer) row.get("book_id"));
+        Map<Integer, int[]> starts = chunkStarts.getAll(ids);
+
+        Set<String> posKeys = new HashSet<>();
+        for (Integer id : starts.keySet()) {
+            for (String term : terms) posKeys.add(SearchService.positionsKey(term, id));
+        }
+        Map<String, byte[]> found = posKeys.isEmpty() ? Map.of() : positions.getAll(posKeys);
+
+        // token range [from, to) per doc, then the chunks covering it
+        Map<Integer, int[]> ranges = new HashMap<>();
+        Set<String> chunkKeys = new HashSet<>();
+        for (Map.Entry<Integer, int[]> e : starts.entrySet()) {
+            int docId = e.getKey();
+            int[] s = e.getValue();
+            if (s == null || s.length == 0) continue;
+
+            int from = Math.max(0, bestWindow(docId, terms, found) - LEAD);
+            int first = chunkOf(s, from);
+            int last = Math.min(chunkOf(s, from + WINDOW - 1), first + 1);
+            ranges.put(docId, new int[]{from, from + WINDOW, first, last});
+            for (int c = first; c <= last; c++) chunkKeys.add(BodyChunks.key(docId, c));
+        }
+        if (chunkKeys.isEmpty()) return;
+        Map<String, byte[]> texts = chunks.getAll(chunkKeys);
+
+        Set<String> highlight = new HashSet<>(terms);
+        for (Map<String, Object> row : hits) {
+            int docId = (Integer) row.get("book_id");
+            int[] r = ranges.get(docId);
+            if (r == null) continue;
+
+            StringBuilder text = new StringBuilder();
+            boolean complete = true;
+            for (int c = r[2]; c <= r[3] && complete; c++) {
+                String chunk = BodyChunks.inflate(texts.get(BodyChunks.key(docId, c)));
+                if (chunk == null) complete = false;
+                else text.append(chunk);
+            }
+            if (!complete) continue;
+
+            boolean moreChunks = r[3] < starts.get(docId).length - 1;
+            String snippet = render(analyzer, text, starts.get(docId)[r[2]], r[0], r[1], highlight, moreChunks);
+            if (snippet != null) row.put("snippet", snippet);
+        }
+    }
+
+    // first position of the WINDOW-token span with the most distinct terms, then the most occurrences; 0 if none
+    private static int bestWindow(int docId, List<String> terms, Map<String, byte[]> found) {
+        List<int[]> events = new ArrayList<>();
+        for (int t = 0; t < terms.size(); t++) {
+            for (int p : PostingCodec.decode(found.get(SearchService.positionsKey(terms.get(t), docId)))) {
+                events.add(new int[]{p, t});
+            }
+        }
+        if (events.isEmpty()) return 0;
+        events.sort(Comparator.comparingInt(ev -> ev[0]));
+
+        int[] inWindow = new int[terms.size()];
+        int distinct = 0;
+        int bestDistinct = -1;
+        int bestCount = -1;
+        int best = 0;
+        for (int lo = 0, hi = 0; hi < events.size(); hi++) {
+            if (inWindow[events.get(hi)[1]]++ == 0) distinct++;
+            while (events.get(hi)[0] - events.get(lo)[0] >= WINDOW) {
+                if (--inWindow[events.get(lo)[1]] == 0) distinct--;
+                lo++;
+            }
+            int count = hi - lo + 1;
+            if (distinct > bestDistinct || (distinct == bestDistinct && count > bestCount)) {
+                bestDistinct = distinct;
+                bestCount = count;
+                best = events.get(lo)[0];
+            }
+        }
+        return best;
+    }
+
+    // index of the chunk holding token position p
+    private static int chunkOf(int[] starts, int p) {
+        int i = Arrays.binarySearch(starts, p);
+        if (i < 0) i = -i - 2;
+        return Math.max(0, i);
+    }
+
+    // tokens [from, to) of text, whose first token is at position base; null if the range holds no token
+    private static String render(Analyzer analyzer, CharSequence text, int base, int from, int to,
+                                 Set<String> highlight, boolean moreChunks) {
+        Renderer r = new Renderer(text, base, from, to, highlight);
+        analyzer.analyze(text, r);
+        if (r.copiedTo < 0) return null;
+
+        String body = r.out.toString().replaceAll("\\s+", " ").trim();
+        return (from > 0 ? "… " : "") + body + (r.truncated || moreChunks ? " …" : "");
+    }
+
+    // copies the tokens in [from, to) with the text between them (dropped stopwords included), wrapping index terms in <em>
+    private static final class Renderer implements Analyzer.TermSink {
+        final StringBuilder out = new StringBuilder();
+        private final CharSequence text;
+        private final int base;
+        private final int from;
+        private final int to;
+        private final Set<String> highlight;
+        int copiedTo = -1;
+        boolean truncated;
+
+        Renderer(CharSequence text, int base, int from, int to, Set<String> highlight) {
+            this.text = text;
+            this.base = base;
+            this.from = from;
+            this.to = to;
+            this.highlight = highlight;
+        }
+
+        @Override
+        public void term(char[] chars, int length, int position, long start, long end) {
+            int p = base + position;
+            if (p >= to) {
+                truncated = true;
+                return;
+            }
+            if (p < from) return;
+
+            if (copiedTo >= 0) escape(text, copiedTo, (int) start, out);
+            boolean em = highlight.contains(new String(chars, 0, length));
+            if (em) out.append("<em>");
+            escape(text, (int) start, (int) end, out);
+            if (em) out.append("</em>");
+            copiedTo = (int) end;
+        }
+    }
+
+    private static void escape(CharSequence s, int from, int to, StringBuilder out) {
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '<' -> out.append("&lt;");
+                case '>' -> out.append("&gt;");
+                case '&' -> out.append("&amp;");
+                case '"' -> out.append("&quot;");
+                default -> out.append(c);
+            }
+        }
+    }
+}
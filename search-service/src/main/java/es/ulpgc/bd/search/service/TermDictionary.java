@@ -0,0 +1,377 @@
+package es.ulpgc.bd.search.service;
+
+import com.hazelcast.core.EntryEvent;
+import com.hazelcast.map.IMap;
+import com.hazelcast.map.MapEvent;
+import com.hazelcast.map.listener.EntryAddedListener;
+import com.hazelcast.map.listener.EntryEvictedListener;
+import com.hazelcast.map.listener.EntryExpiredListener;
+import com.hazelcast.map.listener.EntryRemovedListener;
+import com.hazelcast.map.listener.EntryUpdatedListener;
+import com.hazelcast.map.listener.MapClearedListener;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Local copy of the term dictionary (term -> document frequency) for prefix/wildcard expansion and suggestions.
+ *
+ * A listener on "term-df" keeps a live map up to date; a background thread turns it into an immutable
+ * snapshot (sorted term array, df array and a max-df segment tree) whenever it changed, at most every
+ * refreshMs. A prefix is a contiguous range of the sorted array, so its top-N terms by df come out of the
+ * segment tree in O(N log terms) however many terms share the prefix.
+ *
+ * Fuzzy lookups run a Levenshtein automaton (one edit-distance row per character) along the sorted
+ * terms: rows are shared by terms with a common prefix, and once no state is within the edit budget
+ * the whole range of that prefix is skipped with one binary search.
+ */
+public class TermDictionary {
+
+    /** A dictionary term within some edit distance of a query term. */
+    public record Expansion(String term, int distance) {}
+
+    private final IMap<String, Integer> termDf;
+    private final long refreshMs;
+
+    private final Map<String, Integer> live = new ConcurrentHashMap<>();
+    private final AtomicBoolean dirty = new AtomicBoolean(true);
+    private volatile Snapshot snapshot = Snapshot.build(Map.of());
+    private volatile boolean loaded;
+
+    private final AtomicLong rebuilds = new AtomicLong();
+    private volatile long lastRebuildAt;
+    private volatile long lastRebuildMs;
+
+    public TermDictionary(IMap<String, Integer> termDf, long refreshMs) {
+        this.termDf = termDf;
+        this.refreshMs = Math.max(100, refreshMs);
+
+        termDf.addEntryListener(new Tracker(), true);
+
+        ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "term-dictionary");
+            t.setDaemon(true);
+            return t;
+        });
+        refresher.execute(this::load);
+        refresher.scheduleWithFixedDelay(this::refresh, this.refreshMs, this.refreshMs, TimeUnit.MILLISECONDS);
+    }
+
+    // one full read at startup; the listener is already registered, so newer values from events win
+    private void load() {
+        try {
+            for (Map.Entry<String, Integer> e : termDf.entrySet()) live.putIfAbsent(e.getKey(), e.getValue());
+            loaded = true;
+            dirty.set(true);
+            refresh();
+        } catch (Exception ex) {
+            System.out.println("[SEARCH] term dictionary load failed: " + ex.getMessage());
+        }
+    }
+
+    private void refresh() {
+        if (!dirty.getAndSet(false)) return;
+        long t0 = System.nanoTime();
+        snapshot = Snapshot.build(live);
+        lastRebuildMs = (System.nanoTime() - t0) / 1_000_000L;
+        lastRebuildAt = System.currentTimeMillis();
+        rebuilds.incrementAndGet();
+    }
+
+    /** Document frequency of term in the current snapshot, 0 if unknown. */
+    public int df(String term) {
+        Snapshot s = snapshot;
+        int i = s.lowerBound(term);
+        return (i < s.terms.length && s.terms[i].equals(term)) ? s.dfs[i] : 0;
+    }
+
+    /** Top-n terms starting with prefix, highest df first (ties alphabetical). */
+    public List<Map<String, Object>> suggest(String prefix, int n) {
+        Snapshot s = snapshot;
+        int lo = s.lowerBound(prefix);
+        int hi = s.lowerBound(prefix + Character.MAX_VALUE);
+
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (int i : s.top(lo, hi, n)) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("term", s.terms[i]);
+            row.put("df", s.dfs[i]);
+            out.add(row);
+        }
+        return out;
+    }
+
+    /**
+     * Terms matching a pattern where '*' stands for any characters, at most max of them, highest df first.
+     * Trailing-'*' patterns use the segment tree; others scan the range of their literal prefix.
+     */
+    public List<String> expand(String pattern, int max) {
+        Snapshot s = snapshot;
+        int star = pattern.indexOf('*');
+        String prefix = (star < 0) ? pattern : pattern.substring(0, star);
+        int lo = s.lowerBound(prefix);
+        int hi = s.lowerBound(prefix + Character.MAX_VALUE);
+
+        List<String> out = new ArrayList<>();
+        if (star == pattern.length() - 1) {
+            for (int i : s.top(lo, hi, max)) out.add(s.terms[i]);
+            return out;
+        }
+
+        Pattern re = toRegex(pattern);
+        PriorityQueue<Integer> best = new PriorityQueue<>(s::compareRank);
+        for (int i = lo; i < hi; i++) {
+            if (!re.matcher(s.terms[i]).matches()) continue;
+            best.offer(i);
+            if (best.size() > max) best.poll();
+        }
+        while (!best.isEmpty()) out.add(s.terms[best.poll()]);
+        Collections.reverse(out);
+        return out;
+    }
+
+    /**
+     * Terms within maxEdits insertions, deletions, substitutions or adjacent transpositions of term,
+     * at most max of them: closest first, then highest df. The term itself is included if present.
+     */
+    public List<Expansion> fuzzy(String term, int maxEdits, int max) {
+        Snapshot s = snapshot;
+        int m = term.length();
+
+        // best kept last: a worse distance, then a lower df, sorts first
+        Comparator<int[]> worstFirst = Comparator.<int[]>comparingInt(h -> -h[1])
+                .thenComparing((x, y) -> s.compareRank(x[0], y[0]));
+        PriorityQueue<int[]> best = new PriorityQueue<>(worstFirst);
+
+        // rows[k] is the automaton state after the first k chars of the current term; rows[0..depth] are valid
+        List<int[]> rows = new ArrayList<>();
+        int[] first = new int[m + 1];
+        for (int j = 0; j <= m; j++) first[j] = j;
+        rows.add(first);
+        String prev = "";
+        int depth = 0;
+
+        int i = 0;
+        while (i < s.terms.length) {
+            String t = s.terms[i];
+            int k = Math.min(depth, commonPrefix(prev, t));
+            boolean dead = false;
+            for (; k < t.length(); k++) {
+                int[] row = step(rows, k, t, term);
+                if (rows.size() > k + 1) rows.set(k + 1, row);
+                else rows.add(row);
+                // a transposition can skip one row, so the previous row must be out of budget too
+                if (min(row) > maxEdits && min(rows.get(k)) >= maxEdits) {
+                    dead = true;
+                    break;
+                }
+            }
+            depth = dead ? k + 1 : t.length();
+            prev = t;
+
+            if (dead) {
+                // no term starting with t[0..k] can come back within maxEdits
+                i = s.lowerBound(t.substring(0, k + 1) + Character.MAX_VALUE);
+                continue;
+            }
+
+            int d = rows.get(t.length())[m];
+            if (d <= maxEdits) {
+                best.offer(new int[]{i, d});
+                if (best.size() > max) best.poll();
+            }
+            i++;
+        }
+
+        List<Expansion> out = new ArrayList<>();
+        while (!best.isEmpty()) {
+            int[] h = best.poll();
+            out.add(new Expansion(s.terms[h[0]], h[1]));
+        }
+        Collections.reverse(out);
+        return out;
+    }
+
+    // next row after consuming t[k], restricted Damerau-Levenshtein against the query term q
+    private static int[] step(List<int[]> rows, int k, String t, String q) {
+        int[] prev = rows.get(k);
+        int[] row = new int[prev.length];
+        char c = t.charAt(k);
+        row[0] = k + 1;
+        for (int j = 1; j < row.length; j++) {
+            int cost = (q.charAt(j - 1) == c) ? 0 : 1;
+            int v = Math.min(Math.min(row[j - 1] + 1, prev[j] + 1), prev[j - 1] + cost);
+            if (k > 0 && j > 1 && c == q.charAt(j - 2) && t.charAt(k - 1) == q.charAt(j - 1)) {
+                v = Math.min(v, rows.get(k - 1)[j - 2] + 1);
+            }
+            row[j] = v;
+        }
+        return row;
+    }
+
+    private static int min(int[] row) {
+        int v = Integer.MAX_VALUE;
+        for (int x : row) v = Math.min(v, x);
+        return v;
+    }
+
+    private static int commonPrefix(String a, String b) {
+        int n = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < n && a.charAt(i) == b.charAt(i)) i++;
+        return i;
+    }
+
+    private static Pattern toRegex(String pattern) {
+        StringBuilder re = new StringBuilder();
+        for (String part : pattern.split("\\*", -1)) {
+            if (re.length() > 0) re.append(".*");
+            if (!part.isEmpty()) re.append(Pattern.quote(part));
+        }
+        return Pattern.compile(re.toString());
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("loaded", loaded);
+        out.put("terms", snapshot.terms.length);
+        out.put("pending", live.size() - snapshot.terms.length);
+        out.put("refreshMs", refreshMs);
+        out.put("rebuilds", rebuilds.get());
+        out.put("lastRebuildMs", lastRebuildMs);
+        out.put("lastRebuildAt", lastRebuildAt == 0 ? null : lastRebuildAt);
+        return out;
+    }
+
+    private final class Tracker implements
+            EntryAddedListener<String, Integer>,
+            EntryUpdatedListener<String, Integer>,
+            EntryRemovedListener<String, Integer>,
+            EntryEvictedListener<String, Integer>,
+            EntryExpiredListener<String, Integer>,
+            MapClearedListener {
+
+        @Override
+        public void entryAdded(EntryEvent<String, Integer> e) {
+            set(e.getKey(), e.getValue());
+        }
+
+        @Override
+        public void entryUpdated(EntryEvent<String, Integer> e) {
+            set(e.getKey(), e.getValue());
+        }
+
+        @Override
+        public void entryRemoved(EntryEvent<String, Integer> e) {
+            set(e.getKey(), null);
+        }
+
+        @Override
+        public void entryEvicted(EntryEvent<String, Integer> e) {
+            set(e.getKey(), null);
+        }
+
+        @Override
+        public void entryExpired(EntryEvent<String, Integer> e) {
+            set(e.getKey(), null);
+        }
+
+        @Override
+        public void mapCleared(MapEvent e) {
+            live.clear();
+            dirty.set(true);
+        }
+
+        private void set(String term, Integer df) {
+            if (df == null || df <= 0) live.remove(term);
+            else live.put(term, df);
+            dirty.set(true);
+        }
+    }
+
+    /** Immutable sorted view; tree[k] is the index of the best-ranked term under segment tree node k. */
+    static final class Snapshot {
+        final String[] terms;
+        final int[] dfs;
+        private final int[] tree;
+        private final int leaves;
+
+        private Snapshot(String[] terms, int[] dfs) {
+            this.terms = terms;
+            this.dfs = dfs;
+
+            int size = 1;
+            while (size < terms.length) size <<= 1;
+            this.leaves = size;
+            this.tree = new int[2 * size];
+            Arrays.fill(tree, -1);
+            for (int i = 0; i < terms.length; i++) tree[size + i] = i;
+            for (int k = size - 1; k >= 1; k--) tree[k] = better(tree[2 * k], tree[2 * k + 1]);
+        }
+
+        static Snapshot build(Map<String, Integer> source) {
+            String[] terms = source.keySet().toArray(new String[0]);
+            Arrays.sort(terms);
+            int[] dfs = new int[terms.length];
+            for (int i = 0; i < terms.length; i++) dfs[i] = source.getOrDefault(terms[i], 0);
+            return new Snapshot(terms, dfs);
+        }
+
+        int lowerBound(String key) {
+            int lo = 0;
+            int hi = terms.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (terms[mid].compareTo(key) < 0) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+
+        // higher df first, then the alphabetically smaller (lower index) term
+        int compareRank(int a, int b) {
+            if (dfs[a] != dfs[b]) return Integer.compare(dfs[a], dfs[b]);
+            return Integer.compare(b, a);
+        }
+
+        private int better(int a, int b) {
+            if (a < 0) return b;
+            if (b < 0) return a;
+            return compareRank(a, b) >= 0 ? a : b;
+        }
+
+        // best-ranked index in [lo, hi), -1 if empty
+        int best(int lo, int hi) {
+            int res = -1;
+            for (int l = lo + leaves, r = hi + leaves; l < r; l >>= 1, r >>= 1) {
+                if ((l & 1) == 1) res = better(res, tree[l++]);
+                if ((r & 1) == 1) res = better(res, tree[--r]);
+            }
+            return res;
+        }
+
+        /** Indices of the n best-ranked terms in [lo, hi), best first. */
+        int[] top(int lo, int hi, int n) {
+            if (lo >= hi || n <= 0) return new int[0];
+
+            // each entry is a range {lo, hi, best}; taking a range's best splits it around that index
+            PriorityQueue<int[]> ranges = new PriorityQueue<>((x, y) -> compareRank(y[2], x[2]));
+            ranges.add(new int[]{lo, hi, best(lo, hi)});
+
+            int[] out = new int[Math.min(n, hi - lo)];
+            for (int k = 0; k < out.length; k++) {
+                int[] r = ranges.poll();
+                out[k] = r[2];
+                if (r[0] < r[2]) ranges.add(new int[]{r[0], r[2], best(r[0], r[2])});
+                if (r[2] + 1 < r[1]) ranges.add(new int[]{r[2] + 1, r[1], best(r[2] + 1, r[1])});
+            }
+            return out;
+        }
+    }
+}
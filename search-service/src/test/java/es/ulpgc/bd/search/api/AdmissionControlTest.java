@@ -0,0 +1,136 @@
+package es.ulpgc.bd.search.api;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdmissionControlTest {
+
+    private static final long TARGET_MS = 20;
+
+    @Test
+    void disabledAdmitsEverything() {
+        AdmissionControl admission = new AdmissionControl(1, 0, 0, 0, TARGET_MS);
+        for (int i = 0; i < 100; i++) assertNotNull(admission.acquire());
+        assertFalse(admission.enabled());
+        assertEquals(false, admission.stats().get("enabled"));
+    }
+
+    @Test
+    void rejectsWhenTheLimitIsTakenAndTheQueueIsFull() {
+        AdmissionControl admission = new AdmissionControl(1, 2, 0, 0, TARGET_MS);
+        AdmissionControl.Slot a = admission.acquire();
+        assertNotNull(a);
+        assertNotNull(admission.acquire());
+        assertNull(admission.acquire());
+        assertEquals(1L, admission.stats().get("rejected"));
+
+        a.release(false);
+        a.release(false); // released once only
+        assertNotNull(admission.acquire());
+        assertNull(admission.acquire());
+        assertEquals(2, admission.stats().get("inFlight"));
+    }
+
+    @Test
+    void batchWeighsOnePermitPerQuery() {
+        AdmissionControl admission = new AdmissionControl(1, 4, 0, 0, TARGET_MS);
+        AdmissionControl.Slot batch = admission.acquire(3);
+        assertNotNull(batch);
+        assertNull(admission.acquire(2));
+        assertNotNull(admission.acquire());
+        assertEquals(4, admission.stats().get("inFlight"));
+
+        batch.release(false);
+        assertEquals(1, admission.stats().get("inFlight"));
+        assertNotNull(admission.acquire(3));
+    }
+
+    @Test
+    void batchLargerThanTheLimitRunsAlone() {
+        AdmissionControl admission = new AdmissionControl(1, 4, 0, 0, TARGET_MS);
+        AdmissionControl.Slot single = admission.acquire();
+        assertNull(admission.acquire(100));
+
+        single.release(false);
+        AdmissionControl.Slot batch = admission.acquire(100);
+        assertNotNull(batch);
+        assertEquals(4, admission.stats().get("inFlight"));
+        assertNull(admission.acquire());
+        batch.release(false);
+        assertEquals(0, admission.stats().get("inFlight"));
+    }
+
+    @Test
+    void queuedRequestGetsTheFreedSlot() throws Exception {
+        AdmissionControl admission = new AdmissionControl(1, 1, 1, 5000, TARGET_MS);
+        AdmissionControl.Slot held = admission.acquire();
+        CompletableFuture<AdmissionControl.Slot> waiter = CompletableFuture.supplyAsync(admission::acquire);
+
+        while ((int) admission.stats().get("waiting") == 0) Thread.sleep(1);
+        assertNull(admission.acquire()); // queue of one is full
+        held.release(false);
+
+        assertNotNull(waiter.get(5, TimeUnit.SECONDS));
+        assertEquals(1L, admission.stats().get("queued"));
+        assertEquals(1L, admission.stats().get("rejected"));
+    }
+
+    @Test
+    void queuedRequestIsRejectedAfterMaxWait() {
+        AdmissionControl admission = new AdmissionControl(1, 1, 1, 10, TARGET_MS);
+        assertNotNull(admission.acquire());
+        assertNull(admission.acquire());
+        assertEquals(1L, admission.stats().get("queued"));
+        assertEquals(1L, admission.stats().get("rejected"));
+    }
+
+    @Test
+    void overloadShrinksMultiplicativelyAtMostOncePerTargetDownToTheMinimum() throws Exception {
+        AdmissionControl admission = new AdmissionControl(2, 10, 0, 0, TARGET_MS);
+        assertEquals(10, limit(admission));
+
+        Thread.sleep(TARGET_MS + 5);
+        admission.acquire().release(true);
+        assertEquals(8, limit(admission));
+
+        // within the same target window a second overload doesn't shrink it again
+        admission.acquire().release(true);
+        assertEquals(8, limit(admission));
+        assertEquals(1L, admission.stats().get("decreases"));
+
+        for (int i = 0; i < 20; i++) {
+            Thread.sleep(TARGET_MS + 5);
+            admission.acquire().release(true);
+        }
+        assertEquals(2, limit(admission));
+    }
+
+    @Test
+    void fastCompletionsGrowAdditivelyOnlyWhileTheLimitIsInUse() throws Exception {
+        AdmissionControl admission = new AdmissionControl(1, 4, 0, 0, TARGET_MS);
+        Thread.sleep(TARGET_MS + 5);
+        admission.acquire().release(true);
+        assertEquals(3, limit(admission)); // 3.2
+
+        // one in flight out of 3.2 isn't saturated: no growth
+        for (int i = 0; i < 10; i++) admission.acquire().release(false);
+        assertEquals(3, limit(admission));
+
+        // two in flight is: +1/limit per fast completion, capped at maxLimit
+        for (int i = 0; i < 20; i++) {
+            AdmissionControl.Slot a = admission.acquire();
+            AdmissionControl.Slot b = admission.acquire();
+            a.release(false);
+            b.release(false);
+        }
+        assertEquals(4, limit(admission));
+    }
+
+    private static int limit(AdmissionControl admission) {
+        return (int) admission.stats().get("limit");
+    }
+}
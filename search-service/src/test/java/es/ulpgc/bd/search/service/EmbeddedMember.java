@@ -0,0 +1,27 @@
+package es.ulpgc.bd.search.service;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.config.JoinConfig;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+
+import java.util.UUID;
+
+/** A single Hazelcast member that never joins anything, for tests that need real IMaps. */
+final class EmbeddedMember {
+
+    private EmbeddedMember() {}
+
+    static HazelcastInstance start() {
+        Config cfg = new Config();
+        cfg.setClusterName("test-" + UUID.randomUUID());
+        cfg.setProperty("hazelcast.phone.home.enabled", "false");
+        cfg.setProperty("hazelcast.logging.type", "none");
+
+        JoinConfig join = cfg.getNetworkConfig().getJoin();
+        join.getMulticastConfig().setEnabled(false);
+        join.getTcpIpConfig().setEnabled(false);
+        join.getAutoDetectionConfig().setEnabled(false);
+        return Hazelcast.newHazelcastInstance(cfg);
+    }
+}
@@ -0,0 +1,107 @@
+package es.ulpgc.bd.search.service;
+
+import es.ulpgc.bd.analysis.Analyzer;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParsedQueryTest {
+
+    @Test
+    void splitsTermsAndPhrases() {
+        ParsedQuery q = ParsedQuery.parse("War \"pride and prejudice\" peace");
+        assertEquals(List.of("war", "pride", "and", "prejudice", "peace"), q.terms());
+        assertEquals(1, q.phrases().size());
+        assertEquals(List.of("pride", "and", "prejudice"), q.phrases().get(0).terms());
+        assertEquals(0, q.phrases().get(0).slop());
+    }
+
+    @Test
+    void configuredChainDropsStopwordsAndKeepsPhraseOffsets() {
+        ParsedQuery q = ParsedQuery.parse("\"Pride and the Prejudices\" Ñandú", Analyzer.fromSpec("english+stopwords+stem"));
+        assertEquals(List.of("pride", "prejudice", "nandu"), q.terms());
+        ParsedQuery.Phrase phrase = q.phrases().get(0);
+        assertEquals(List.of("pride", "prejudice"), phrase.terms());
+        assertArrayEquals(new int[]{0, 3}, phrase.offsets());
+    }
+
+    @Test
+    void readsSlopAndCapsIt() {
+        assertEquals(3, ParsedQuery.parse("\"war peace\"~3").phrases().get(0).slop());
+        assertEquals(ParsedQuery.MAX_SLOP, ParsedQuery.parse("\"war peace\"~999").phrases().get(0).slop());
+        assertEquals(ParsedQuery.MAX_SLOP, ParsedQuery.parse("\"war peace\"~99999999999999999999").phrases().get(0).slop());
+        assertEquals(2, ParsedQuery.parse("\"war peace\"~0000000000002").phrases().get(0).slop());
+    }
+
+    @Test
+    void slopAboveTheMaximumIsInvalid() {
+        assertTrue(ParsedQuery.isValidSlop(null));
+        assertTrue(ParsedQuery.isValidSlop("\"war peace\" whale"));
+        assertTrue(ParsedQuery.isValidSlop("\"war peace\"~" + ParsedQuery.MAX_SLOP));
+        assertFalse(ParsedQuery.isValidSlop("\"war peace\"~" + (ParsedQuery.MAX_SLOP + 1)));
+        assertFalse(ParsedQuery.isValidSlop("\"a b\"~1 \"war peace\"~99999999999999999999"));
+    }
+
+    @Test
+    void emptyPhrasesAreDropped() {
+        ParsedQuery q = ParsedQuery.parse("whale \"\" \"!!\"");
+        assertEquals(List.of("whale"), q.terms());
+        assertTrue(q.phrases().isEmpty());
+    }
+
+    @Test
+    void unclosedQuoteIsPlainText() {
+        ParsedQuery q = ParsedQuery.parse("\"moby dick");
+        assertEquals(List.of("moby", "dick"), q.terms());
+        assertTrue(q.phrases().isEmpty());
+    }
+
+    @Test
+    void normalizedFormListsTermsThenPhrases() {
+        assertEquals("moby dick whale \"moby dick\"~2", ParsedQuery.parse("\"Moby  Dick\"~2 whale").normalized());
+        assertTrue(ParsedQuery.parse("  ").isEmpty());
+        assertTrue(ParsedQuery.parse(null).isEmpty());
+    }
+
+    @Test
+    void starsOutsidePhrasesMakeWildcards() {
+        ParsedQuery q = ParsedQuery.parse("Shakesp** war \"to* be\" *");
+        assertEquals(List.of("shakesp*"), q.wildcards());
+        assertEquals(List.of("war", "to", "be"), q.terms());
+        assertEquals("war to be shakesp* \"to be\"", q.normalized());
+        assertFalse(ParsedQuery.parse("wh*le").isEmpty());
+    }
+
+    @Test
+    void minMatchSpecs() {
+        assertTrue(ParsedQuery.isValidMinMatch(null));
+        assertTrue(ParsedQuery.isValidMinMatch(" AND "));
+        assertTrue(ParsedQuery.isValidMinMatch("2"));
+        assertTrue(ParsedQuery.isValidMinMatch("75%"));
+        assertFalse(ParsedQuery.isValidMinMatch("some"));
+        assertFalse(ParsedQuery.isValidMinMatch("-1"));
+        assertTrue(ParsedQuery.isValidMinMatch("100%"));
+        assertTrue(ParsedQuery.isValidMinMatch("999999999"));
+        assertFalse(ParsedQuery.isValidMinMatch("0"));
+        assertFalse(ParsedQuery.isValidMinMatch("0%"));
+        assertFalse(ParsedQuery.isValidMinMatch("101%"));
+        assertFalse(ParsedQuery.isValidMinMatch("99999999999999999999"));
+        assertFalse(ParsedQuery.isValidMinMatch("99999999999999999999%"));
+        assertEquals("or", ParsedQuery.normalizeMinMatch("  "));
+    }
+
+    @Test
+    void minShouldMatchIsClampedToTheTermCount() {
+        assertEquals(4, ParsedQuery.minShouldMatch("and", 4));
+        assertEquals(1, ParsedQuery.minShouldMatch("or", 4));
+        assertEquals(1, ParsedQuery.minShouldMatch(null, 4));
+        assertEquals(2, ParsedQuery.minShouldMatch("2", 4));
+        assertEquals(4, ParsedQuery.minShouldMatch("9", 4));
+        assertEquals(1, ParsedQuery.minShouldMatch("0", 4));
+        assertEquals(3, ParsedQuery.minShouldMatch("75%", 4));
+        assertEquals(1, ParsedQuery.minShouldMatch("10%", 4));
+        assertEquals(4, ParsedQuery.minShouldMatch("300%", 4));
+    }
+}
@@ -0,0 +1,57 @@
+package es.ulpgc.bd.search.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PhraseMatcherTest {
+
+    @Test
+    void adjacentTermsMatchWithoutSlop() {
+        assertTrue(matches(new int[][]{{4, 10}, {11}}, 0));
+        assertFalse(matches(new int[][]{{4, 10}, {12}}, 0));
+    }
+
+    @Test
+    void orderMatters() {
+        assertFalse(matches(new int[][]{{5}, {4}}, 3));
+    }
+
+    @Test
+    void slopIsSharedAcrossTheWholePhrase() {
+        // gaps of 1 and 1: two extra positions in total
+        int[][] positions = {{0}, {2}, {4}};
+        assertFalse(matches(positions, 1));
+        assertTrue(matches(positions, 2));
+    }
+
+    @Test
+    void triesLaterOccurrencesOfEveryTerm() {
+        // the first "a" at 0 leads nowhere; a=20, b=21, c=23 fits slop 1
+        int[][] positions = {{0, 20}, {5, 21}, {9, 23}};
+        assertTrue(matches(positions, 1));
+        assertFalse(matches(positions, 0));
+    }
+
+    @Test
+    void missingTermNeverMatches() {
+        assertFalse(matches(new int[][]{{1}, {}}, 10));
+    }
+
+    @Test
+    void droppedStopwordsLeaveGapsInTheOffsets() {
+        // "whale of the sea" with "of the" dropped: sea is expected 3 positions after whale
+        int[][] positions = {{7}, {10}};
+        int[] offsets = {0, 3};
+        assertTrue(PhraseMatcher.matches(positions, offsets, 0));
+        assertFalse(PhraseMatcher.matches(new int[][]{{7}, {8}}, offsets, 1));
+        assertTrue(PhraseMatcher.matches(new int[][]{{7}, {11}}, offsets, 1));
+    }
+
+    // consecutive offsets, as for a phrase without dropped terms
+    private static boolean matches(int[][] positions, int slop) {
+        int[] offsets = new int[positions.length];
+        for (int i = 0; i < offsets.length; i++) offsets[i] = i;
+        return PhraseMatcher.matches(positions, offsets, slop);
+    }
+}
@@ -0,0 +1,92 @@
+package es.ulpgc.bd.search.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryCacheTest {
+
+    private static final SearchResult ROWS = new SearchResult(List.of(Map.of("book_id", 1), Map.of("book_id", 2)), Map.of(), false);
+
+    @Test
+    void sameGenerationIsServedFromCache() {
+        QueryCache cache = new QueryCache(100, 0);
+        AtomicInteger computed = new AtomicInteger();
+
+        assertEquals(ROWS, cache.get(key(1, "whale"), () -> compute(computed)));
+        assertEquals(ROWS, cache.get(key(1, "whale"), () -> compute(computed)));
+        assertEquals(1, computed.get());
+        assertTrue(cache.contains(key(1, "whale")));
+        assertFalse(cache.contains(key(1, "sea")));
+    }
+
+    @Test
+    void newerGenerationMissesAndDropsOlderEntries() {
+        QueryCache cache = new QueryCache(100, 0);
+        AtomicInteger computed = new AtomicInteger();
+        cache.get(key(1, "whale"), () -> compute(computed));
+        cache.get(key(1, "sea"), () -> compute(computed));
+
+        cache.get(key(2, "whale"), () -> compute(computed));
+        assertEquals(3, computed.get());
+        assertFalse(cache.contains(key(1, "whale")));
+        assertFalse(cache.contains(key(1, "sea")));
+        assertTrue(cache.contains(key(2, "whale")));
+        assertEquals(1L, cache.stats().get("invalidations"));
+        assertEquals(2L, cache.stats().get("generation"));
+    }
+
+    @Test
+    void disabledCacheAlwaysComputes() {
+        QueryCache cache = new QueryCache(0, 0);
+        AtomicInteger computed = new AtomicInteger();
+        cache.get(key(1, "whale"), () -> compute(computed));
+        cache.get(key(1, "whale"), () -> compute(computed));
+        assertEquals(2, computed.get());
+        assertFalse(cache.enabled());
+    }
+
+    @Test
+    void resultsOfAGenerationAreOnlyStoredOnceItSettled() throws InterruptedException {
+        QueryCache cache = new QueryCache(100, 100);
+        AtomicInteger computed = new AtomicInteger();
+        cache.get(key(1, "whale"), () -> compute(computed));
+        cache.get(key(1, "whale"), () -> compute(computed));
+        assertEquals(2, computed.get());
+        assertFalse(cache.contains(key(1, "whale")));
+        assertEquals(2L, cache.stats().get("unsettledSkips"));
+
+        Thread.sleep(150);
+        cache.get(key(1, "whale"), () -> compute(computed));
+        cache.get(key(1, "whale"), () -> compute(computed));
+        assertEquals(3, computed.get());
+        assertTrue(cache.contains(key(1, "whale")));
+    }
+
+    @Test
+    void partialAndOlderGenerationResultsAreNotStored() {
+        QueryCache cache = new QueryCache(100, 0);
+        SearchResult partial = new SearchResult(ROWS.results(), Map.of(), true);
+        assertEquals(partial, cache.get(key(1, "whale"), () -> partial));
+        assertFalse(cache.contains(key(1, "whale")));
+
+        // a search that read generation 1 finishes after generation 2 was seen
+        cache.getIfPresent(key(2, "sea"));
+        cache.put(key(1, "sea"), ROWS);
+        assertFalse(cache.contains(key(1, "sea")));
+    }
+
+    private static SearchResult compute(AtomicInteger computed) {
+        computed.incrementAndGet();
+        return ROWS;
+    }
+
+    private static QueryCache.Key key(long generation, String terms) {
+        return new QueryCache.Key(generation, terms, "", "", null, 10, true, Ranking.TFIDF, "or", 0,
+                List.of(), 10, false);
+    }
+}
@@ -0,0 +1,172 @@
+package es.ulpgc.bd.search.service;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.map.IMap;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Pruned (MaxScore) evaluation must return exactly the exhaustive top-k. */
+class ScoringTaskTest {
+
+    private static final List<String> TERMS = List.of("whale", "sea", "ship", "captain", "harpoon");
+    private static final int DOCS = 3000;
+
+    private static HazelcastInstance hz;
+    private static int[] docIds;
+    private static long[] masks;
+    private static int[] maxTf;
+    private static int[] dfs;
+    private static double avgLength;
+
+    @BeforeAll
+    static void load() {
+        hz = EmbeddedMember.start();
+        IMap<Integer, Map<String, Object>> docs = hz.getMap("docs");
+        IMap<Integer, Map<String, Integer>> docTerms = hz.getMap("docTerms");
+
+        // skewed tfs so a few docs dominate and most candidates can be pruned
+        Random random = new Random(3);
+        maxTf = new int[TERMS.size()];
+        dfs = new int[TERMS.size()];
+        List<Integer> ids = new ArrayList<>();
+        List<Long> docMasks = new ArrayList<>();
+        Map<Integer, Map<String, Object>> metas = new HashMap<>();
+        Map<Integer, Map<String, Integer>> vectors = new HashMap<>();
+        long totalLength = 0;
+
+        for (int id = 1; id <= DOCS; id++) {
+            Map<String, Integer> tfs = new HashMap<>();
+            long mask = 0;
+            for (int t = 0; t < TERMS.size(); t++) {
+                if (random.nextInt(4) != 0) continue;
+                int tf = 1 + (int) Math.floor(Math.pow(random.nextDouble(), 6) * 60);
+                tfs.put(TERMS.get(t), tf);
+                mask |= 1L << t;
+                maxTf[t] = Math.max(maxTf[t], tf);
+                dfs[t]++;
+            }
+            int length = 200 + random.nextInt(5000);
+            totalLength += length;
+            tfs.put("filler", length / 10);
+
+            Map<String, Object> meta = new HashMap<>();
+            meta.put("title", "Book " + id);
+            meta.put("author", (id % 3 == 0) ? "Herman Melville" : "Jules Verne");
+            meta.put("language", (id % 2 == 0) ? "en" : "fr");
+            meta.put("year", 1850 + id % 40);
+            meta.put("length", length);
+            metas.put(id, meta);
+            vectors.put(id, tfs);
+
+            if (mask == 0) continue;
+            ids.add(id);
+            docMasks.add(mask);
+        }
+        docs.putAll(metas);
+        docTerms.putAll(vectors);
+
+        docIds = ids.stream().mapToInt(Integer::intValue).toArray();
+        masks = docMasks.stream().mapToLong(Long::longValue).toArray();
+        avgLength = (double) totalLength / DOCS;
+    }
+
+    @AfterAll
+    static void stop() {
+        if (hz != null) hz.shutdown();
+    }
+
+    @Test
+    void prunedTopKEqualsExhaustiveForTfIdf() {
+        for (int limit : new int[]{1, 5, 10, 50}) {
+            assertSameTopK(Ranking.TFIDF, limit, null);
+        }
+    }
+
+    @Test
+    void prunedTopKEqualsExhaustiveForBm25() {
+        for (int limit : new int[]{1, 5, 10, 50}) {
+            assertSameTopK(Ranking.BM25, limit, null);
+        }
+    }
+
+    @Test
+    void prunedTopKEqualsExhaustiveWithFilters() {
+        assertSameTopK(Ranking.TFIDF, 10, "en");
+        assertSameTopK(Ranking.BM25, 10, "en");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void facetsCountEveryCandidatePassingTheFilters() {
+        ScoringTask task = new ScoringTask(TERMS, new double[TERMS.size()], new double[TERMS.size()], null, "en", null,
+                10, docIds, masks, true, Ranking.TFIDF, avgLength, List.of("author", "decade"), ScoringTask.NO_DEADLINE);
+        task.setHazelcastInstance(hz);
+        Map<String, Map<String, Integer>> facets = (Map<String, Map<String, Integer>>) task.call().get("facets");
+
+        Map<String, Integer> authors = new HashMap<>();
+        Map<String, Integer> decades = new HashMap<>();
+        for (int id : docIds) {
+            if (id % 2 != 0) continue;
+            authors.merge((id % 3 == 0) ? "Herman Melville" : "Jules Verne", 1, Integer::sum);
+            decades.merge((1850 + id % 40) / 10 * 10 + "s", 1, Integer::sum);
+        }
+        assertEquals(authors, facets.get("author"));
+        assertEquals(decades, facets.get("decade"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void passedDeadlineReturnsAPartialResult() {
+        ScoringTask task = new ScoringTask(TERMS, new double[TERMS.size()], new double[TERMS.size()], null, null, null,
+                10, docIds, masks, false, Ranking.TFIDF, avgLength, List.of(), System.currentTimeMillis() - 1);
+        task.setHazelcastInstance(hz);
+        Map<String, Object> out = task.call();
+        assertEquals(true, out.get("partial"));
+        assertTrue(((List<Map<String, Object>>) out.get("rows")).isEmpty());
+    }
+
+    private static void assertSameTopK(Ranking ranking, int limit, String language) {
+        List<Map<String, Object>> exhaustive = rows(task(ranking, limit, language, false));
+        List<Map<String, Object>> pruned = rows(task(ranking, limit, language, true));
+
+        assertEquals(limit, exhaustive.size());
+        assertEquals(ids(exhaustive), ids(pruned), ranking + " limit=" + limit);
+        for (int i = 0; i < exhaustive.size(); i++) {
+            assertEquals((double) exhaustive.get(i).get("score"), (double) pruned.get(i).get("score"), 0.0);
+        }
+    }
+
+    private static ScoringTask task(Ranking ranking, int limit, String language, boolean prune) {
+        double[] weights = new double[TERMS.size()];
+        double[] bounds = new double[TERMS.size()];
+        for (int t = 0; t < TERMS.size(); t++) {
+            weights[t] = ranking.idf(DOCS, dfs[t]);
+            bounds[t] = ranking.bound(weights[t], maxTf[t]);
+        }
+        ScoringTask task = new ScoringTask(TERMS, weights, bounds, null, language, null, limit, docIds, masks,
+                prune, ranking, avgLength, List.of(), ScoringTask.NO_DEADLINE);
+        task.setHazelcastInstance(hz);
+        return task;
+    }
+
+    // best first, as the coordinator merges them
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> rows(ScoringTask task) {
+        Map<String, Object> out = task.call();
+        assertNull(out.get("partial"));
+        List<Map<String, Object>> rows = new ArrayList<>((List<Map<String, Object>>) out.get("rows"));
+        rows.sort(ScoringTask.WORST_FIRST.reversed());
+        return rows;
+    }
+
+    private static List<Object> ids(List<Map<String, Object>> rows) {
+        List<Object> out = new ArrayList<>();
+        for (Map<String, Object> row : rows) out.add(row.get("book_id"));
+        return out;
+    }
+}
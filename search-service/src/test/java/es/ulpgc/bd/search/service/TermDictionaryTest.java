@@ -0,0 +1,142 @@
+package es.ulpgc.bd.search.service;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.map.IMap;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Suggestions, wildcards and the fuzzy automaton (with its prefix skipping) against brute force over every term. */
+class TermDictionaryTest {
+
+    private static HazelcastInstance hz;
+    private static TermDictionary dictionary;
+    private static Map<String, Integer> terms;
+
+    @BeforeAll
+    static void load() throws InterruptedException {
+        hz = EmbeddedMember.start();
+        IMap<String, Integer> termDf = hz.getMap("term-df");
+
+        Random random = new Random(5);
+        terms = new HashMap<>();
+        for (String t : List.of("whale", "whales", "wheal", "hwale", "whaler", "while", "shale", "wale", "ale",
+                "captain", "caption", "captains", "ship", "shop", "hips", "sea", "see", "ocean", "oceans")) {
+            terms.put(t, 1 + random.nextInt(100));
+        }
+        String letters = "aehlnsw";
+        while (terms.size() < 3000) {
+            StringBuilder sb = new StringBuilder();
+            int len = 2 + random.nextInt(7);
+            for (int i = 0; i < len; i++) sb.append(letters.charAt(random.nextInt(letters.length())));
+            terms.put(sb.toString(), 1 + random.nextInt(1000));
+        }
+        termDf.putAll(terms);
+
+        dictionary = new TermDictionary(termDf, 100);
+        for (int i = 0; i < 100 && (int) dictionary.stats().get("terms") < terms.size(); i++) Thread.sleep(50);
+        assertEquals(terms.size(), dictionary.stats().get("terms"));
+    }
+
+    @AfterAll
+    static void stop() {
+        if (hz != null) hz.shutdown();
+    }
+
+    @Test
+    void suggestReturnsTheTopPrefixTermsByDf() {
+        List<Map<String, Object>> rows = dictionary.suggest("wh", 5);
+        List<String> expected = ranked(t -> t.startsWith("wh")).subList(0, 5);
+        List<String> actual = new ArrayList<>();
+        for (Map<String, Object> row : rows) {
+            actual.add((String) row.get("term"));
+            assertEquals(terms.get((String) row.get("term")), row.get("df"));
+        }
+        assertEquals(expected, actual);
+        assertTrue(dictionary.suggest("zz", 5).isEmpty());
+    }
+
+    @Test
+    void trailingStarExpandsByDf() {
+        assertEquals(ranked(t -> t.startsWith("cap")), dictionary.expand("cap*", 10));
+    }
+
+    @Test
+    void innerStarsScanThePrefixRange() {
+        List<String> expected = ranked(t -> t.matches("w.*l.*s"));
+        List<String> all = dictionary.expand("w*l*s", Integer.MAX_VALUE);
+        assertEquals(expected, all);
+        assertEquals(expected.subList(0, 3), dictionary.expand("w*l*s", 3));
+    }
+
+    @Test
+    void findsTranspositionsAndSingleEdits() {
+        Set<String> found = new HashSet<>();
+        for (TermDictionary.Expansion e : dictionary.fuzzy("whale", 1, 100)) found.add(e.term());
+        assertTrue(found.containsAll(List.of("whale", "whales", "hwale", "while", "shale", "wale")));
+        assertFalse(found.contains("wheal"));
+        assertFalse(found.contains("ale"));
+        assertEquals(new TermDictionary.Expansion("whale", 0), dictionary.fuzzy("whale", 1, 100).get(0));
+    }
+
+    @Test
+    void matchesBruteForceDistance() {
+        for (String query : List.of("whale", "captian", "sea", "hsip", "wnahle", "aaaa", "sweln")) {
+            for (int edits = 1; edits <= 2; edits++) {
+                Map<String, Integer> expected = new TreeMap<>();
+                for (String t : terms.keySet()) {
+                    int d = distance(query, t);
+                    if (d <= edits) expected.put(t, d);
+                }
+
+                Map<String, Integer> actual = new TreeMap<>();
+                List<TermDictionary.Expansion> found = dictionary.fuzzy(query, edits, Integer.MAX_VALUE);
+                for (TermDictionary.Expansion e : found) actual.put(e.term(), e.distance());
+                assertEquals(expected, actual, query + " ~" + edits);
+
+                // closest first
+                for (int i = 1; i < found.size(); i++) {
+                    assertTrue(found.get(i - 1).distance() <= found.get(i).distance());
+                }
+            }
+        }
+    }
+
+    @Test
+    void keepsTheClosestWhenCapped() {
+        List<TermDictionary.Expansion> found = dictionary.fuzzy("whale", 2, 3);
+        assertEquals(3, found.size());
+        assertEquals("whale", found.get(0).term());
+        for (TermDictionary.Expansion e : found.subList(1, 3)) assertEquals(1, e.distance());
+    }
+
+    // dictionary terms passing the test, highest df first, ties alphabetical
+    private static List<String> ranked(Predicate<String> test) {
+        List<String> out = new ArrayList<>();
+        for (String t : terms.keySet()) if (test.test(t)) out.add(t);
+        out.sort(Comparator.<String>comparingInt(terms::get).reversed().thenComparing(Comparator.naturalOrder()));
+        return out;
+    }
+
+    // optimal string alignment distance, the restricted Damerau-Levenshtein the automaton computes
+    private static int distance(String a, String b) {
+        int[][] d = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) d[i][0] = i;
+        for (int j = 0; j <= b.length(); j++) d[0][j] = j;
+        for (int i = 1; i <= a.length(); i++) {
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = (a.charAt(i - 1) == b.charAt(j - 1)) ? 0 : 1;
+                d[i][j] = Math.min(Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1), d[i - 1][j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    d[i][j] = Math.min(d[i][j], d[i - 2][j - 2] + 1);
+                }
+            }
+        }
+        return d[a.length()][b.length()];
+    }
+}
@@ -0,0 +1,231 @@
+package es.ulpgc.bd.analysis;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The analyzer chain that turns text into index terms, shared by the indexing and search services so
+ * a term indexed by one is found by the other:
+ *
+ * 1. tokens: runs of letters and numbers (the code points of [\p{L}\p{N}]+), scanned code point by
+ *    code point from a Reader or CharSequence, in a single pass and without copying the text;
+ * 2. folding: lower case and accents removed, per code point (é -> e, Ñ -> n, Ά -> α);
+ * 3. optionally the language's stopwords are dropped (their positions are still counted, so sinks see
+ *    a gap in positions where one was);
+ * 4. optionally the language's minimal stemmer is applied.
+ *
+ * Terms are passed to a TermSink as a reused char buffer, so analysis allocates nothing per token;
+ * a sink that keeps terms (TermPositions) creates one String per distinct term.
+ * Instances are immutable and thread-safe.
+ */
+public final class Analyzer {
+
+    /**
+     * The chain an index is built and queried with unless its settings choose another one (see spec):
+     * folding only, every token kept. Changing the chain changes the index terms and needs an /index/rebuild.
+     */
+    public static final Analyzer DEFAULT = new Analyzer(Language.NONE, false, false);
+
+    private static final int READ_CHARS = 8192;
+
+    // folded form of every code point below FOLDED (covers Latin, Greek, Cyrillic and the other alphabetic scripts)
+    private static final int FOLDED = 0x3000;
+    private static final char[] FOLD = new char[FOLDED];
+
+    static {
+        for (int cp = 0; cp < FOLDED; cp++) FOLD[cp] = (char) stripAccents(Character.toLowerCase(cp));
+    }
+
+    /** Receives each term; chars[0, length) is only valid during the call. start/end are char offsets in the text. */
+    @FunctionalInterface
+    public interface TermSink {
+        void term(char[] chars, int length, int position, long start, long end);
+    }
+
+    private final Language language;
+    private final boolean stopwords;
+    private final boolean stem;
+
+    public Analyzer(Language language, boolean stopwords, boolean stem) {
+        this.language = language;
+        this.stopwords = stopwords;
+        this.stem = stem;
+    }
+
+    /** Chain with the stopwords and/or stemmer of a document or query language ("English", "es", ...). */
+    public static Analyzer forLanguage(String language, boolean stopwords, boolean stem) {
+        return new Analyzer(Language.of(language), stopwords, stem);
+    }
+
+    /**
+     * Chain from its spec: a language ("none", "english", "spanish", or anything Language.of accepts)
+     * optionally followed by "+stopwords" and/or "+stem", e.g. "english+stopwords+stem". null or blank is DEFAULT.
+     *
+     * @throws IllegalArgumentException for an unknown option
+     */
+    public static Analyzer fromSpec(String spec) {
+        if (spec == null || spec.isBlank()) return DEFAULT;
+        String[] parts = spec.trim().toLowerCase(Locale.ROOT).split("\\+");
+        boolean stopwords = false;
+        boolean stem = false;
+        for (int i = 1; i < parts.length; i++) {
+            switch (parts[i].trim()) {
+                case "stopwords" -> stopwords = true;
+                case "stem" -> stem = true;
+                default -> throw new IllegalArgumentException("unknown analyzer option: " + parts[i]);
+            }
+        }
+        return new Analyzer(Language.of(parts[0]), stopwords, stem);
+    }
+
+    /** Canonical spec of this chain (see fromSpec); equal chains have equal specs. */
+    public String spec() {
+        String s = language.name().toLowerCase(Locale.ROOT);
+        if (language == Language.NONE) return s;
+        return s + (stopwords ? "+stopwords" : "") + (stem ? "+stem" : "");
+    }
+
+    /** Reads the text to its end (the caller closes it); returns the number of tokens, stopwords included. */
+    public int analyze(Reader in, TermSink sink) throws IOException {
+        Scan scan = new Scan(sink);
+        char[] buf = new char[READ_CHARS];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            for (int i = 0; i < n; i++) scan.next(buf[i]);
+        }
+        return scan.end();
+    }
+
+    public int analyze(CharSequence text, TermSink sink) {
+        Scan scan = new Scan(sink);
+        for (int i = 0, n = text.length(); i < n; i++) scan.next(text.charAt(i));
+        return scan.end();
+    }
+
+    /** Terms of a short text (queries, headers) in order. */
+    public List<String> terms(CharSequence text) {
+        List<String> out = new ArrayList<>();
+        if (text == null) return out;
+        analyze(text, (chars, length, position, start, end) -> out.add(new String(chars, 0, length)));
+        return out;
+    }
+
+    /** Folds every char (lower case, no accents) without tokenizing or stemming, e.g. for wildcard segments. */
+    public static String fold(CharSequence s) {
+        StringBuilder out = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); ) {
+            int cp = Character.codePointAt(s, i);
+            out.appendCodePoint(fold(cp));
+            i += Character.charCount(cp);
+        }
+        return out.toString();
+    }
+
+    public static int fold(int cp) {
+        if (cp < 128) return (cp >= 'A' && cp <= 'Z') ? cp + 32 : cp;
+        return (cp < FOLDED) ? FOLD[cp] : Character.toLowerCase(cp);
+    }
+
+    public static boolean isTokenChar(int cp) {
+        if (cp < 128) return (cp >= 'a' && cp <= 'z') || (cp >= 'A' && cp <= 'Z') || (cp >= '0' && cp <= '9');
+        switch (Character.getType(cp)) {
+            case Character.UPPERCASE_LETTER, Character.LOWERCASE_LETTER, Character.TITLECASE_LETTER,
+                    Character.MODIFIER_LETTER, Character.OTHER_LETTER,
+                    Character.DECIMAL_DIGIT_NUMBER, Character.LETTER_NUMBER, Character.OTHER_NUMBER:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // base letter of cp if its canonical decomposition is that letter plus combining marks, else cp
+    private static int stripAccents(int cp) {
+        if (Character.isSurrogate((char) cp) || !Character.isLetter(cp)) return cp;
+        String d = Normalizer.normalize(String.valueOf((char) cp), Normalizer.Form.NFD);
+        if (d.length() < 2 || Character.isSurrogate(d.charAt(0))) return cp;
+        for (int i = 1; i < d.length(); i++) {
+            if (Character.getType(d.charAt(i)) != Character.NON_SPACING_MARK) return cp;
+        }
+        return d.charAt(0);
+    }
+
+    // scanner state of one analyze call
+    private final class Scan {
+        private final TermSink sink;
+        private char[] token = new char[32];
+        private int length;
+        private boolean inToken;
+        private long tokenStart;
+        private long offset;
+        private int position;
+        private char high;
+
+        Scan(TermSink sink) {
+            this.sink = sink;
+        }
+
+        void next(char c) {
+            if (high != 0) {
+                char h = high;
+                high = 0;
+                if (Character.isLowSurrogate(c)) {
+                    codePoint(Character.toCodePoint(h, c), offset - 1);
+                    offset++;
+                    return;
+                }
+                codePoint(h, offset - 1);
+            }
+            // a high surrogate may have its low half in the next read
+            if (Character.isHighSurrogate(c)) {
+                high = c;
+                offset++;
+                return;
+            }
+            codePoint(c, offset);
+            offset++;
+        }
+
+        int end() {
+            if (high != 0) {
+                codePoint(high, offset - 1);
+                high = 0;
+            }
+            if (inToken) emit(offset);
+            return position;
+        }
+
+        private void codePoint(int cp, long at) {
+            if (!isTokenChar(cp)) {
+                if (inToken) emit(at);
+                return;
+            }
+            if (!inToken) {
+                inToken = true;
+                length = 0;
+                tokenStart = at;
+            }
+
+            int folded = fold(cp);
+            if (length + 2 > token.length) token = Arrays.copyOf(token, token.length * 2);
+            if (Character.isBmpCodePoint(folded)) {
+                token[length++] = (char) folded;
+            } else {
+                token[length++] = Character.highSurrogate(folded);
+                token[length++] = Character.lowSurrogate(folded);
+            }
+        }
+
+        private void emit(long end) {
+            inToken = false;
+            int p = position++;
+            if (stopwords && language.isStopword(token, length)) return;
+            int len = stem ? language.stem(token, length) : length;
+            sink.term(token, len, p, tokenStart, end);
+        }
+    }
+}
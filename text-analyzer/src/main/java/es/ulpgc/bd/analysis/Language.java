@@ -0,0 +1,117 @@
+package es.ulpgc.bd.analysis;
+
+import java.util.Locale;
+
+/**
+ * Language-specific steps of the analyzer chain: a stopword list and a minimal (plural-only) stemmer.
+ * Both work on folded terms, i.e. lower case without accents, in place on the token buffer.
+ */
+public enum Language {
+
+    NONE(new String[0]) {
+        @Override
+        int stem(char[] s, int len) {
+            return len;
+        }
+    },
+
+    ENGLISH(new String[]{
+            "the", "and", "of", "to", "in", "a", "is", "it", "that", "for", "on", "as", "with", "was", "were",
+            "be", "by", "at", "an", "or", "from", "this", "which", "but", "not", "are", "his", "her", "their",
+            "its", "have", "has", "had", "you", "i", "he", "she", "we", "they", "them", "me", "my", "our", "your"
+    }) {
+        // plurals only: ponies -> pony, books -> book; keeps -ss, -us, -ies after a/e, -aes/-ees/-oes
+        @Override
+        int stem(char[] s, int len) {
+            if (len < 3 || s[len - 1] != 's') return len;
+            switch (s[len - 2]) {
+                case 'u':
+                case 's':
+                    return len;
+                case 'e':
+                    if (len > 3 && s[len - 3] == 'i' && s[len - 4] != 'a' && s[len - 4] != 'e') {
+                        s[len - 3] = 'y';
+                        return len - 2;
+                    }
+                    if (s[len - 3] == 'i' || s[len - 3] == 'a' || s[len - 3] == 'o' || s[len - 3] == 'e') return len;
+                    return len - 1;
+                default:
+                    return len - 1;
+            }
+        }
+    },
+
+    SPANISH(new String[]{
+            "de", "la", "que", "el", "en", "y", "a", "los", "del", "se", "las", "por", "un", "para", "con", "no",
+            "una", "su", "al", "lo", "como", "mas", "pero", "sus", "le", "ya", "o", "este", "si", "porque", "esta",
+            "entre", "cuando", "muy", "sin", "sobre", "tambien", "me", "hasta", "hay", "donde", "quien", "desde",
+            "todo", "nos", "durante", "todos", "uno", "les", "ni", "contra", "otros", "ese", "eso", "ante", "ellos",
+            "e", "esto", "mi", "antes", "algunos", "unos", "yo", "otro", "otras", "otra", "tanto", "esa", "estos",
+            "mucho", "quienes", "nada", "muchos", "cual", "poco", "ella", "estar", "estas", "algunas", "algo"
+    }) {
+        // plurals only: luces -> luz, flores -> flor, ciudades -> ciudad, casas -> casa
+        @Override
+        int stem(char[] s, int len) {
+            if (len < 4 || s[len - 1] != 's') return len;
+            if (s[len - 2] == 'e') {
+                if (s[len - 3] == 'c') {
+                    s[len - 3] = 'z';
+                    return len - 2;
+                }
+                switch (s[len - 3]) {
+                    case 'l': case 'r': case 'n': case 'd': case 'j': case 'z':
+                        return len - 2;
+                    default:
+                        return len - 1;
+                }
+            }
+            switch (s[len - 2]) {
+                case 'a': case 'i': case 'o': case 'u':
+                    return len - 1;
+                default:
+                    return len;
+            }
+        }
+    };
+
+    private final String[] stopwords;
+    private final int mask;
+
+    Language(String[] words) {
+        // open-addressing set keyed by String.hashCode, so a token buffer is looked up without building a String
+        int size = Integer.highestOneBit(Math.max(4, words.length * 4) - 1) << 1;
+        this.stopwords = new String[size];
+        this.mask = size - 1;
+        for (String w : words) {
+            int i = mix(w.hashCode()) & mask;
+            while (stopwords[i] != null && !stopwords[i].equals(w)) i = (i + 1) & mask;
+            stopwords[i] = w;
+        }
+    }
+
+    /** English for "en...", Spanish for "es..."/"spa..." (as in headers like "Language: English"), else NONE. */
+    public static Language of(String language) {
+        if (language == null) return NONE;
+        String l = language.trim().toLowerCase(Locale.ROOT);
+        if (l.startsWith("en")) return ENGLISH;
+        if (l.startsWith("es") || l.startsWith("spa")) return SPANISH;
+        return NONE;
+    }
+
+    /** New length of the folded term s[0, len) after stemming, rewritten in place. */
+    abstract int stem(char[] s, int len);
+
+    boolean isStopword(char[] s, int len) {
+        int h = 0;
+        for (int i = 0; i < len; i++) h = 31 * h + s[i];
+        for (int i = mix(h) & mask; stopwords[i] != null; i = (i + 1) & mask) {
+            if (TermPositions.same(stopwords[i], s, len)) return true;
+        }
+        return false;
+    }
+
+    static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
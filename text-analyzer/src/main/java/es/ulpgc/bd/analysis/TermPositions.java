@@ -0,0 +1,105 @@
+package es.ulpgc.bd.analysis;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Collects the positions of every term of a text, as an Analyzer sink.
+ *
+ * Terms are interned in an open-addressing table keyed by the token's chars (slots hold term id + 1,
+ * 0 = free; linear probing; resized at 1/2 load), so a String is created once per distinct term and a
+ * repeated term only appends an int to its position array.
+ */
+public final class TermPositions implements Analyzer.TermSink {
+
+    private int[] slots = new int[1024];
+    private String[] names = new String[512];
+    private int[] hashes = new int[512];
+    private int[][] positions = new int[512][];
+    private int[] counts = new int[512];
+    private int size;
+
+    @Override
+    public void term(char[] chars, int length, int position, long start, long end) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) hash = 31 * hash + chars[i];
+
+        int mask = slots.length - 1;
+        int i = Language.mix(hash) & mask;
+        int id;
+        while (true) {
+            int slot = slots[i];
+            if (slot == 0) {
+                id = insert(chars, length, hash, i);
+                break;
+            }
+            if (hashes[slot - 1] == hash && same(names[slot - 1], chars, length)) {
+                id = slot - 1;
+                break;
+            }
+            i = (i + 1) & mask;
+        }
+
+        int[] list = positions[id];
+        if (counts[id] == list.length) positions[id] = list = Arrays.copyOf(list, list.length * 2);
+        list[counts[id]++] = position;
+    }
+
+    /** Distinct terms seen so far. */
+    public int size() {
+        return size;
+    }
+
+    /** Ascending positions of every term; their lengths are the term frequencies. */
+    public Map<String, int[]> positions() {
+        Map<String, int[]> out = new HashMap<>(size * 2);
+        for (int id = 0; id < size; id++) {
+            int[] list = positions[id];
+            out.put(names[id], (counts[id] == list.length) ? list : Arrays.copyOf(list, counts[id]));
+        }
+        return out;
+    }
+
+    public Map<String, Integer> frequencies() {
+        Map<String, Integer> out = new HashMap<>(size * 2);
+        for (int id = 0; id < size; id++) out.put(names[id], counts[id]);
+        return out;
+    }
+
+    private int insert(char[] chars, int length, int hash, int slot) {
+        int id = size++;
+        if (id == names.length) {
+            int cap = names.length * 2;
+            names = Arrays.copyOf(names, cap);
+            hashes = Arrays.copyOf(hashes, cap);
+            positions = Arrays.copyOf(positions, cap);
+            counts = Arrays.copyOf(counts, cap);
+        }
+        names[id] = new String(chars, 0, length);
+        hashes[id] = hash;
+        positions[id] = new int[4];
+        slots[slot] = id + 1;
+        if (size * 2 > slots.length) rehash();
+        return id;
+    }
+
+    private void rehash() {
+        int[] grown = new int[slots.length * 2];
+        int mask = grown.length - 1;
+        for (int id = 0; id < size; id++) {
+            int i = Language.mix(hashes[id]) & mask;
+            while (grown[i] != 0) i = (i + 1) & mask;
+            grown[i] = id + 1;
+        }
+        slots = grown;
+    }
+
+    static boolean same(String name, char[] chars, int length) {
+        if (name.length() != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(i) != chars[i]) return false;
+        }
+        return true;
+    }
+}
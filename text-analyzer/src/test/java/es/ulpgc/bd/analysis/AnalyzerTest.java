@@ -0,0 +1,99 @@
+package es.ulpgc.bd.analysis;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AnalyzerTest {
+
+    private static final Analyzer ENGLISH = Analyzer.forLanguage("English", true, true);
+    private static final Analyzer SPANISH = Analyzer.forLanguage("es", true, true);
+
+    @Test
+    void foldsCaseAndAccentsPerCodePoint() {
+        assertEquals(List.of("nandu", "elan", "istanbul", "αθηνα", "cafe", "straße", "1851"),
+                Analyzer.DEFAULT.terms("Ñandú, ÉLAN — İstanbul Ἀθήνα café STRAßE 1851"));
+        assertEquals("cafe*", Analyzer.fold("CAFÉ*"));
+        assertEquals('o', Analyzer.fold('Ö'));
+        assertEquals("東京", Analyzer.fold("東京"));
+    }
+
+    @Test
+    void tokensAreLetterAndNumberRunsWithPositionsAndOffsets() {
+        List<String> seen = new ArrayList<>();
+        int tokens = Analyzer.DEFAULT.analyze("Hi 𝔘nicode,ahab's  ok", (chars, length, position, start, end) ->
+                seen.add(new String(chars, 0, length) + "@" + position + "[" + start + "," + end + ")"));
+        assertEquals(List.of("hi@0[0,2)", "𝔘nicode@1[3,11)", "ahab@2[12,16)", "s@3[17,18)", "ok@4[20,22)"), seen);
+        assertEquals(5, tokens);
+    }
+
+    @Test
+    void readerAndCharSequenceAgreeWhenReadsSplitSurrogates() throws Exception {
+        String text = "𝔘𝔘 x\uD800y Ærø 𝔘nicode\uD835";
+        List<String> fromText = new ArrayList<>();
+        List<String> fromReader = new ArrayList<>();
+        Analyzer.DEFAULT.analyze(text, (chars, length, position, start, end) ->
+                fromText.add(new String(chars, 0, length) + "@" + position + "[" + start + "," + end + ")"));
+        Analyzer.DEFAULT.analyze(new OneCharReader(text), (chars, length, position, start, end) ->
+                fromReader.add(new String(chars, 0, length) + "@" + position + "[" + start + "," + end + ")"));
+        assertEquals(List.of("𝔘𝔘@0[0,4)", "x@1[5,6)", "y@2[7,8)", "ærø@3[9,12)", "𝔘nicode@4[13,21)"), fromText);
+        assertEquals(fromText, fromReader);
+    }
+
+    @Test
+    void stopwordsAreDroppedButKeepTheirPositions() {
+        List<String> seen = new ArrayList<>();
+        int tokens = ENGLISH.analyze("The whale and THE sea", (chars, length, position, start, end) ->
+                seen.add(new String(chars, 0, length) + "@" + position));
+        assertEquals(List.of("whale@1", "sea@4"), seen);
+        assertEquals(5, tokens);
+        assertEquals(List.of("the", "whale", "and", "the", "sea"), Analyzer.DEFAULT.terms("The whale and THE sea"));
+    }
+
+    @Test
+    void englishStemsPluralsOnly() {
+        assertEquals(List.of("pony", "book", "whale", "day", "glass", "bus", "shoes", "toy", "running"),
+                ENGLISH.terms("ponies books whales days glass bus shoes toys running"));
+    }
+
+    @Test
+    void spanishStemsPluralsOnlyAfterFolding() {
+        assertEquals(List.of("luz", "flor", "ciudad", "casa", "arbol", "mes"),
+                SPANISH.terms("luces flores ciudades casas árboles mes"));
+        assertEquals(List.of("cancion"), SPANISH.terms("la canción"));
+    }
+
+    @Test
+    void languageFromHeaderValues() {
+        assertEquals(Language.ENGLISH, Language.of(" English "));
+        assertEquals(Language.ENGLISH, Language.of("en"));
+        assertEquals(Language.SPANISH, Language.of("Spanish"));
+        assertEquals(Language.SPANISH, Language.of("es-ES"));
+        assertEquals(Language.NONE, Language.of("French"));
+        assertEquals(Language.NONE, Language.of(null));
+        assertEquals(List.of("whales", "the"), Analyzer.forLanguage("French", true, true).terms("Whales the"));
+    }
+
+    private static final class OneCharReader extends Reader {
+        private final String text;
+        private int pos;
+
+        OneCharReader(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public int read(char[] buf, int off, int len) {
+            if (pos == text.length()) return -1;
+            buf[off] = text.charAt(pos++);
+            return 1;
+        }
+
+        @Override
+        public void close() {}
+    }
+}